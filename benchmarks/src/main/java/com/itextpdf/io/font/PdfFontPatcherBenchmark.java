@@ -0,0 +1,327 @@
+package com.itextpdf.io.font;
+
+import com.github.alexsc.pdf.FontFileRegistry;
+import com.github.alexsc.pdf.FontResourceWalker;
+import com.github.alexsc.pdf.FontSubsetCache;
+import com.github.alexsc.pdf.GlyphSet;
+import com.github.alexsc.pdf.GlyphUsageScanner;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDCIDFontType2EmbedderHelper;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDTrueTypeFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.font.PDType1CFont;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the stages of {@link PdfFontPatcher#optimizeFonts} separately. Every operation processes all PDFs
+ * of the {@code input} parameter, a file or a directory. Subsetting and save report the produced bytes per
+ * operation as {@code outputBytes}; the runner adds the GC profiler for allocation rates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PdfFontPatcherBenchmark {
+    @Param({"../forms", "../form.pdf"})
+    public String input;
+
+    private final PdfFontPatcherOptions options = new PdfFontPatcherOptions();
+    private List<File> files;
+    private List<PDDocument> docs;
+    private List<PDFont> fonts;
+    private Map<FontKind, List<PreparedFont>> preparedFonts;
+    private File output;
+
+    enum FontKind {
+        CFF, TYPE1C, TRUETYPE, CID_TRUETYPE
+    }
+
+    static final class PreparedFont {
+        final PDDocument doc;
+        final PDFont font;
+        final GlyphSet usedCodes;
+        final byte[] bytes;
+
+        PreparedFont(PDDocument doc, PDFont font, GlyphSet usedCodes, byte[] bytes) {
+            this.doc = doc;
+            this.font = font;
+            this.usedCodes = usedCodes;
+            this.bytes = bytes;
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Output {
+        /**
+         * Size of the last result, the same for every operation.
+         */
+        public long outputBytes;
+    }
+
+    /**
+     * Fresh copies of the documents, {@link PdfFontPatcher#optimizeCIDTrueType} patches the font in place.
+     */
+    @State(Scope.Thread)
+    public static class CidTrueTypeDocuments {
+        private List<PDDocument> docs;
+        private List<PreparedFont> fonts;
+        private FontFileRegistry fontFiles;
+
+        @Setup(Level.Invocation)
+        public void open(PdfFontPatcherBenchmark benchmark) throws IOException {
+            docs = new ArrayList<>();
+            fonts = new ArrayList<>();
+            fontFiles = new FontFileRegistry();
+            for (var file : benchmark.files) {
+                var doc = PdfFontPatcher.openDocument(file, benchmark.options);
+                docs.add(doc);
+                fonts.addAll(prepareFonts(doc, fontFiles).get(FontKind.CID_TRUETYPE));
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() throws IOException {
+            for (var doc : docs) {
+                doc.close();
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // The patcher logs every font
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        var root = new File(input);
+        var list = root.isDirectory() ? root.listFiles((dir, name) -> name.toLowerCase(Locale.ROOT).endsWith(".pdf")) : new File[]{root};
+        if (list == null || list.length == 0) {
+            throw new IOException("No PDF files in " + root.getAbsolutePath());
+        }
+        files = new ArrayList<>(Arrays.asList(list));
+        Collections.sort(files);
+
+        docs = new ArrayList<>();
+        fonts = new ArrayList<>();
+        preparedFonts = new EnumMap<>(FontKind.class);
+        for (var kind : FontKind.values()) {
+            preparedFonts.put(kind, new ArrayList<>());
+        }
+        var fontFiles = new FontFileRegistry();
+        for (var file : files) {
+            var doc = PdfFontPatcher.openDocument(file, options);
+            docs.add(doc);
+            fonts.addAll(pageFonts(doc));
+            prepareFonts(doc, fontFiles).forEach((kind, prepared) -> preparedFonts.get(kind).addAll(prepared));
+        }
+        output = File.createTempFile("benchmark", ".pdf");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (var doc : docs) {
+            doc.close();
+        }
+        output.delete();
+    }
+
+    @Benchmark
+    public void load(Blackhole bh) throws IOException {
+        for (var file : files) {
+            try (var doc = PdfFontPatcher.openDocument(file, options)) {
+                bh.consume(doc.getNumberOfPages());
+            }
+        }
+    }
+
+    @Benchmark
+    public void collectGlyphs(Blackhole bh) throws IOException {
+        for (var doc : docs) {
+            bh.consume(GlyphUsageScanner.scan(doc, new FontFileRegistry(), false));
+        }
+    }
+
+    /**
+     * Glyph collection through {@code CustomPdfRenderer}.
+     */
+    @Benchmark
+    public void renderGlyphs(Blackhole bh) throws IOException {
+        for (var doc : docs) {
+            bh.consume(GlyphUsageScanner.scan(doc, new FontFileRegistry(), true));
+        }
+    }
+
+    @Benchmark
+    public void digest(Blackhole bh) throws IOException {
+        for (var font : fonts) {
+            bh.consume(PdfFontPatcher.getFontContentDigest(font));
+        }
+    }
+
+    @Benchmark
+    public void subsetCff(Output output) throws IOException {
+        long size = 0;
+        for (var font : preparedFonts.get(FontKind.CFF)) {
+            size += PdfFontPatcher.prepareGenericCffSubset(font.usedCodes, font.bytes, FontSubsetCache.disabled()).subset().length;
+        }
+        output.outputBytes = size;
+    }
+
+    @Benchmark
+    public void subsetType1C(Output output) throws IOException {
+        long size = 0;
+        for (var font : preparedFonts.get(FontKind.TYPE1C)) {
+            size += PdfFontPatcher.prepareType1CSubset((PDType1CFont) font.font, font.usedCodes, font.bytes, FontSubsetCache.disabled()).subset().length;
+        }
+        output.outputBytes = size;
+    }
+
+    /**
+     * Legacy TrueType path through iText, see {@link PdfFontPatcherOptions#setLegacyTrueTypeSubsetter(boolean)}.
+     */
+    @Benchmark
+    public void subsetTrueType(Output output) throws IOException {
+        long size = 0;
+        for (var font : preparedFonts.get(FontKind.TRUETYPE)) {
+            size += PDCIDFontType2EmbedderHelper.prepareTrueTypeSubset((PDTrueTypeFont) font.font, font.usedCodes, font.bytes, FontSubsetCache.disabled()).subset().length;
+        }
+        output.outputBytes = size;
+    }
+
+    @Benchmark
+    public void subsetTrueTypeGlyf(Output output) throws IOException {
+        long size = 0;
+        for (var font : preparedFonts.get(FontKind.TRUETYPE)) {
+            size += PdfFontPatcher.prepareGlyfSubset(font.font, font.usedCodes, font.bytes, FontSubsetCache.disabled()).subset().length;
+        }
+        output.outputBytes = size;
+    }
+
+    /**
+     * Legacy CIDFontType2 path, re-embedding the font with PDFBox.
+     */
+    @Benchmark
+    public void subsetCidTrueType(CidTrueTypeDocuments documents, Output output) throws IOException {
+        long size = 0;
+        for (var font : documents.fonts) {
+            PdfFontPatcher.optimizeCIDTrueType(font.font, font.doc, font.usedCodes, documents.fontFiles);
+            size += FontFileRegistry.getFontFile(font.font).getLength();
+        }
+        output.outputBytes = size;
+    }
+
+    @Benchmark
+    public void subsetCidTrueTypeGlyf(Output output) throws IOException {
+        long size = 0;
+        for (var font : preparedFonts.get(FontKind.CID_TRUETYPE)) {
+            size += PdfFontPatcher.prepareGlyfSubset(font.font, font.usedCodes, font.bytes, FontSubsetCache.disabled()).subset().length;
+        }
+        output.outputBytes = size;
+    }
+
+    @Benchmark
+    public void save(Output output) throws IOException {
+        long size = 0;
+        for (var doc : docs) {
+            PdfFontPatcher.saveDocument(doc, this.output, options);
+            size += this.output.length();
+        }
+        output.outputBytes = size;
+    }
+
+    @Benchmark
+    public void optimize(Output output) throws IOException {
+        long size = 0;
+        for (var file : files) {
+            PdfFontPatcher.optimizeFonts(file, this.output, options);
+            size += this.output.length();
+        }
+        output.outputBytes = size;
+    }
+
+    private static List<PDFont> pageFonts(PDDocument doc) throws IOException {
+        var result = new ArrayList<PDFont>();
+        Set<COSDictionary> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        // Pages without resources, form XObjects and appearance streams are handled like the patcher does
+        FontResourceWalker.walk(doc, (page, fonts, name, font) -> {
+            if (seen.add(font.getCOSObject()) && FontFileRegistry.getFontFile(font) != null) {
+                result.add(font);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Groups the embedded page fonts by subsetting path, with the codes used in the document.
+     */
+    private static Map<FontKind, List<PreparedFont>> prepareFonts(PDDocument doc, FontFileRegistry fontFiles) throws IOException {
+        var usedCodes = GlyphUsageScanner.scan(doc, fontFiles, false).getUsedCodes();
+        Map<FontKind, List<PreparedFont>> result = new EnumMap<>(FontKind.class);
+        for (var kind : FontKind.values()) {
+            result.put(kind, new ArrayList<>());
+        }
+        for (var font : pageFonts(doc)) {
+            var used = usedCodes.get(fontFiles.getDigest(font));
+            var kind = kindOf(font);
+            if (used == null || kind == null) {
+                continue;
+            }
+            result.get(kind).add(new PreparedFont(doc, font, used, fontFiles.getBytes(font)));
+        }
+        return result;
+    }
+
+    private static FontKind kindOf(PDFont font) {
+        var descriptor = font.getFontDescriptor();
+        if (font instanceof PDType1CFont) {
+            return FontKind.TYPE1C;
+        }
+        if (font instanceof PDTrueTypeFont) {
+            return FontKind.TRUETYPE;
+        }
+        if (font instanceof PDType0Font && descriptor != null) {
+            if (descriptor.getFontFile2() != null) {
+                return FontKind.CID_TRUETYPE;
+            }
+            var fontFile3 = descriptor.getFontFile3();
+            if (fontFile3 != null && "CIDFontType0C".equals(fontFile3.getCOSObject().getNameAsString(COSName.SUBTYPE))) {
+                return FontKind.CFF;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs the benchmarks with the GC profiler, accepts the usual JMH command line.
+     */
+    public static void main(String[] args) throws RunnerException, IOException {
+        try {
+            var options = new OptionsBuilder()
+                    .parent(new CommandLineOptions(args))
+                    .include(PdfFontPatcherBenchmark.class.getSimpleName())
+                    .addProfiler(GCProfiler.class)
+                    .build();
+            new Runner(options).run();
+        } catch (org.openjdk.jmh.runner.options.CommandLineOptionException e) {
+            throw new IOException(e);
+        }
+    }
+}
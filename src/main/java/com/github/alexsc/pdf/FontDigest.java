@@ -0,0 +1,209 @@
+package com.github.alexsc.pdf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Fixed-width hex digest of a font program, computed from a stream in fixed-size chunks.
+ */
+public final class FontDigest {
+    public enum Algorithm {
+        SHA1("SHA-1"),
+        SHA256("SHA-256"),
+        /**
+         * xxHash64 plus the length. Much cheaper than SHA, but different programs may
+         * collide, so keys are only trusted together with a full comparison, see {@link FontFileRegistry}.
+         */
+        FAST64(null);
+
+        private final String jdkName;
+
+        Algorithm(String jdkName) {
+            this.jdkName = jdkName;
+        }
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+    private static final ThreadLocal<Map<Algorithm, MessageDigest>> DIGESTS = ThreadLocal.withInitial(() -> new EnumMap<>(Algorithm.class));
+
+    private final String key;
+    private final long length;
+
+    private FontDigest(String key, long length) {
+        this.key = key;
+        this.length = length;
+    }
+
+    public static FontDigest of(Algorithm algorithm, InputStream is) throws IOException {
+        var buffer = BUFFERS.get();
+        if (algorithm == Algorithm.FAST64) {
+            var hash = new Hash64();
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                hash.update(buffer, 0, read);
+            }
+            return new FontDigest(hash.toKey(), hash.length);
+        }
+
+        // The digest is reused by the thread, a failed read must not leave its input behind
+        var digest = messageDigest(algorithm);
+        digest.reset();
+        try {
+            long length = 0;
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                length += read;
+            }
+            return new FontDigest(toHex(digest.digest()), length);
+        } finally {
+            digest.reset();
+        }
+    }
+
+    public static FontDigest of(Algorithm algorithm, byte[] bytes) {
+        if (algorithm == Algorithm.FAST64) {
+            var hash = new Hash64();
+            hash.update(bytes, 0, bytes.length);
+            return new FontDigest(hash.toKey(), bytes.length);
+        }
+        return new FontDigest(toHex(messageDigest(algorithm).digest(bytes)), bytes.length);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    private static MessageDigest messageDigest(Algorithm algorithm) {
+        return DIGESTS.get().computeIfAbsent(algorithm, a -> {
+            try {
+                return MessageDigest.getInstance(a.jdkName);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    static String toHex(byte[] bytes) {
+        var chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            chars[2 * i + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * xxHash64 with seed 0, fed incrementally: four lanes over 32-byte stripes, the remainder buffered
+     * between updates.
+     */
+    private static final class Hash64 {
+        private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+        private static final VarHandle INTS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+        private static final long PRIME1 = 0x9E3779B185EBCA87L;
+        private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+        private static final long PRIME3 = 0x165667B19E3779F9L;
+        private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+        private static final long PRIME5 = 0x27D4EB2F165667C5L;
+        private static final int STRIPE = 32;
+
+        private final byte[] pending = new byte[STRIPE];
+        private int pendingLength;
+        private long v1 = PRIME1 + PRIME2;
+        private long v2 = PRIME2;
+        private long v3 = 0;
+        private long v4 = -PRIME1;
+        private long length;
+
+        void update(byte[] bytes, int offset, int count) {
+            length += count;
+            int end = offset + count;
+            if (pendingLength > 0) {
+                int copy = Math.min(STRIPE - pendingLength, count);
+                System.arraycopy(bytes, offset, pending, pendingLength, copy);
+                pendingLength += copy;
+                offset += copy;
+                if (pendingLength < STRIPE) {
+                    return;
+                }
+                stripe(pending, 0);
+                pendingLength = 0;
+            }
+            for (; offset + STRIPE <= end; offset += STRIPE) {
+                stripe(bytes, offset);
+            }
+            System.arraycopy(bytes, offset, pending, 0, end - offset);
+            pendingLength = end - offset;
+        }
+
+        private void stripe(byte[] bytes, int offset) {
+            v1 = round(v1, (long) LONGS.get(bytes, offset));
+            v2 = round(v2, (long) LONGS.get(bytes, offset + 8));
+            v3 = round(v3, (long) LONGS.get(bytes, offset + 16));
+            v4 = round(v4, (long) LONGS.get(bytes, offset + 24));
+        }
+
+        private static long round(long acc, long input) {
+            acc += input * PRIME2;
+            acc = Long.rotateLeft(acc, 31);
+            return acc * PRIME1;
+        }
+
+        private static long merge(long acc, long lane) {
+            acc ^= round(0, lane);
+            return acc * PRIME1 + PRIME4;
+        }
+
+        long digest() {
+            long h;
+            if (length >= STRIPE) {
+                h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                h = merge(h, v1);
+                h = merge(h, v2);
+                h = merge(h, v3);
+                h = merge(h, v4);
+            } else {
+                h = PRIME5;
+            }
+            h += length;
+
+            int i = 0;
+            for (; i + 8 <= pendingLength; i += 8) {
+                h ^= round(0, (long) LONGS.get(pending, i));
+                h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+            }
+            if (i + 4 <= pendingLength) {
+                h ^= ((int) INTS.get(pending, i) & 0xFFFFFFFFL) * PRIME1;
+                h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+                i += 4;
+            }
+            for (; i < pendingLength; i++) {
+                h ^= (pending[i] & 0xFFL) * PRIME5;
+                h = Long.rotateLeft(h, 11) * PRIME1;
+            }
+
+            h ^= h >>> 33;
+            h *= PRIME2;
+            h ^= h >>> 29;
+            h *= PRIME3;
+            h ^= h >>> 32;
+            return h;
+        }
+
+        String toKey() {
+            return String.format("%016x%016x", digest(), length);
+        }
+    }
+}
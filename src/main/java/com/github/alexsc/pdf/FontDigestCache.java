@@ -0,0 +1,78 @@
+package com.github.alexsc.pdf;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sizes and digests of decoded font programs shared between documents, keyed by the digest of the still
+ * encoded stream data and its filters. A font seen before is identified without inflating it.
+ * <p>
+ * Entries are held in an LRU map bounded by their number. Thread-safe.
+ */
+public class FontDigestCache {
+    private final int maxEntries;
+    private final LinkedHashMap<String, Entry> entries;
+
+    static final class Entry {
+        final int size;
+        final String digest;
+
+        Entry(int size, String digest) {
+            this.size = size;
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * @param maxEntries number of font programs remembered, 0 disables the cache
+     */
+    public FontDigestCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > FontDigestCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Cache which never stores anything.
+     */
+    public static FontDigestCache disabled() {
+        return new FontDigestCache(0);
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Key of the stream's encoded data. Only valid for streams of unencrypted documents.
+     */
+    String rawKey(COSStream stream, FontDigest.Algorithm algorithm) throws IOException {
+        String rawDigest;
+        try (var is = stream.createRawInputStream()) {
+            rawDigest = FontDigest.of(algorithm, is).getKey();
+        }
+        return algorithm + "-" + rawDigest + "-" + stream.getFilters() + "-" + stream.getDictionaryObject(COSName.DECODE_PARMS);
+    }
+
+    synchronized Entry get(String rawKey) {
+        return entries.get(rawKey);
+    }
+
+    synchronized void put(String rawKey, int size, String digest) {
+        if (maxEntries > 0) {
+            entries.put(rawKey, new Entry(size, digest));
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
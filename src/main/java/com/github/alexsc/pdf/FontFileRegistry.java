@@ -0,0 +1,305 @@
+package com.github.alexsc.pdf;
+
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObjectKey;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Embedded font programs of one document, keyed by their FontFile stream.
+ * <p>
+ * Each stream is decoded at most once; its decoded size and content digest are kept after the bytes
+ * are {@link #release(PDFont) released}. Size and digest alone are computed by streaming, without decoding
+ * the whole program into memory. Size and digest of indirect streams are also shared with the
+ * registries of other copies of the same file, see {@link #forCopyOfDocument()}.
+ * Not thread-safe, use one registry per document.
+ */
+public class FontFileRegistry {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final FontDigest.Algorithm algorithm;
+    private final FontDigestCache digestCache;
+    private final Map<COSStream, Entry> entries = new IdentityHashMap<>();
+    private final ConcurrentHashMap<COSObjectKey, Entry> sharedEntries;
+    // Streams by digest, only used to detect collisions of the non-cryptographic hash
+    private final Map<String, COSStream> streamsByDigest = new HashMap<>();
+    private String emptyDigest;
+
+    public FontFileRegistry() {
+        this(FontDigest.Algorithm.SHA1);
+    }
+
+    public FontFileRegistry(FontDigest.Algorithm algorithm) {
+        this(algorithm, FontDigestCache.disabled());
+    }
+
+    /**
+     * @param digestCache digests shared with other documents, must be disabled for encrypted documents
+     */
+    public FontFileRegistry(FontDigest.Algorithm algorithm, FontDigestCache digestCache) {
+        this(algorithm, digestCache, new ConcurrentHashMap<>());
+    }
+
+    private FontFileRegistry(FontDigest.Algorithm algorithm, FontDigestCache digestCache, ConcurrentHashMap<COSObjectKey, Entry> sharedEntries) {
+        this.algorithm = algorithm;
+        this.digestCache = digestCache;
+        this.sharedEntries = sharedEntries;
+    }
+
+    /**
+     * Registry for another copy of the same file, sharing sizes and digests by object key.
+     */
+    public FontFileRegistry forCopyOfDocument() {
+        return new FontFileRegistry(algorithm, digestCache, sharedEntries);
+    }
+
+    /**
+     * @return the FontFile, FontFile2 or FontFile3 stream, or null for non-embedded fonts
+     */
+    public static COSStream getFontFile(PDFont font) {
+        var descriptor = font.getFontDescriptor();
+        if (descriptor == null) {
+            return null;
+        }
+        PDStream stream = descriptor.getFontFile();
+        if (stream == null) {
+            stream = descriptor.getFontFile2();
+        }
+        if (stream == null) {
+            stream = descriptor.getFontFile3();
+        }
+        return stream != null ? stream.getCOSObject() : null;
+    }
+
+    /**
+     * Reads the font program from the font dictionary instead of the cached font descriptor, which goes stale
+     * when an embedder replaces the descriptor of a descendant font.
+     *
+     * @return the current FontFile, FontFile2 or FontFile3 stream, or null for non-embedded fonts
+     */
+    public static COSStream getCurrentFontFile(PDFont font) {
+        COSDictionary dict = font.getCOSObject();
+        if (font instanceof PDType0Font) {
+            var descendants = dict.getCOSArray(COSName.DESCENDANT_FONTS);
+            var descendant = descendants != null && descendants.size() > 0 ? descendants.getObject(0) : null;
+            if (!(descendant instanceof COSDictionary)) {
+                return null;
+            }
+            dict = (COSDictionary) descendant;
+        }
+        var descriptor = dict.getCOSDictionary(COSName.FONT_DESC);
+        if (descriptor == null) {
+            return null;
+        }
+        for (var key : new COSName[]{COSName.FONT_FILE, COSName.FONT_FILE2, COSName.FONT_FILE3}) {
+            var stream = descriptor.getCOSStream(key);
+            if (stream != null) {
+                return stream;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return decoded font program, empty for non-embedded fonts
+     */
+    public byte[] getBytes(PDFont font) throws IOException {
+        var stream = getFontFile(font);
+        if (stream == null) {
+            return EMPTY;
+        }
+        var entry = getEntry(stream);
+        if (entry.bytes == null) {
+            entry.bytes = decode(stream);
+        }
+        return entry.bytes;
+    }
+
+    /**
+     * @return decoded size of the font program, 0 for non-embedded fonts
+     */
+    public int getSize(PDFont font) throws IOException {
+        var stream = getFontFile(font);
+        if (stream == null) {
+            return 0;
+        }
+        return getSize(stream);
+    }
+
+    /**
+     * @return decoded size of the font program
+     */
+    public int getSize(COSStream stream) throws IOException {
+        var entry = getEntry(stream);
+        if (entry.size < 0) {
+            computeDigest(stream, entry);
+        }
+        return entry.size;
+    }
+
+    public String getDigest(PDFont font) throws IOException {
+        var stream = getFontFile(font);
+        if (stream == null) {
+            if (emptyDigest == null) {
+                emptyDigest = FontDigest.of(algorithm, EMPTY).getKey();
+            }
+            return emptyDigest;
+        }
+        var entry = getEntry(stream);
+        if (entry.digest == null) {
+            computeDigest(stream, entry);
+        }
+        return entry.digest;
+    }
+
+    /**
+     * @return time spent computing the digest of the font's program, 0 if not computed or not embedded
+     */
+    public long getDigestNanos(PDFont font) {
+        var stream = getFontFile(font);
+        var entry = stream != null ? entries.get(stream) : null;
+        return entry != null ? entry.digestNanos : 0;
+    }
+
+    private void computeDigest(COSStream stream, Entry entry) throws IOException {
+        long start = System.nanoTime();
+        var rawKey = entry.bytes == null && digestCache.isEnabled() ? digestCache.rawKey(stream, algorithm) : null;
+        var cached = rawKey != null ? digestCache.get(rawKey) : null;
+        if (cached != null) {
+            entry.size = cached.size;
+            entry.digest = cached.digest;
+        } else {
+            FontDigest digest;
+            if (entry.bytes != null) {
+                digest = FontDigest.of(algorithm, entry.bytes);
+            } else {
+                try (var is = stream.createInputStream()) {
+                    digest = FontDigest.of(algorithm, is);
+                }
+            }
+            entry.size = (int) digest.getLength();
+            entry.digest = digest.getKey();
+            if (rawKey != null) {
+                digestCache.put(rawKey, entry.size, entry.digest);
+            }
+        }
+        if (algorithm == FontDigest.Algorithm.FAST64) {
+            entry.digest = resolveCollision(stream, entry);
+        }
+        entry.digestNanos = System.nanoTime() - start;
+        if (entry.key != null) {
+            sharedEntries.putIfAbsent(entry.key, entry.snapshot());
+        }
+    }
+
+    /**
+     * Returns a digest not used by any stream with different content. On a collision the digest gets a suffix,
+     * derived from the object key where possible so that copies of the same file agree on it.
+     */
+    private String resolveCollision(COSStream stream, Entry entry) throws IOException {
+        var digest = entry.digest;
+        if (isFree(digest, stream)) {
+            return digest;
+        }
+        var prefix = digest + "~" + (entry.key != null ? entry.key.getNumber() + "." + entry.key.getGeneration() + "." : "");
+        for (int attempt = 1; ; attempt++) {
+            if (isFree(prefix + attempt, stream)) {
+                return prefix + attempt;
+            }
+        }
+    }
+
+    private boolean isFree(String digest, COSStream stream) throws IOException {
+        var other = streamsByDigest.putIfAbsent(digest, stream);
+        return other == null || sameContent(stream, other);
+    }
+
+    private static boolean sameContent(COSStream a, COSStream b) throws IOException {
+        var bufferA = new byte[8192];
+        var bufferB = new byte[8192];
+        try (var isA = a.createInputStream(); var isB = b.createInputStream()) {
+            while (true) {
+                int readA = isA.readNBytes(bufferA, 0, bufferA.length);
+                int readB = isB.readNBytes(bufferB, 0, bufferB.length);
+                if (readA != readB || !Arrays.equals(bufferA, 0, readA, bufferB, 0, readB)) {
+                    return false;
+                }
+                if (readA < bufferA.length) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the decoded bytes of the font's current program, size and digest stay known.
+     */
+    public void release(PDFont font) {
+        var stream = getFontFile(font);
+        if (stream != null) {
+            release(stream);
+        }
+    }
+
+    public void release(COSStream stream) {
+        var entry = entries.get(stream);
+        if (entry != null) {
+            entry.bytes = null;
+        }
+    }
+
+    private Entry getEntry(COSStream stream) {
+        var entry = entries.get(stream);
+        if (entry == null) {
+            var key = stream.getKey();
+            var shared = key != null ? sharedEntries.get(key) : null;
+            entry = new Entry(key);
+            if (shared != null) {
+                entry.size = shared.size;
+                entry.digest = shared.digest;
+                entry.digestNanos = shared.digestNanos;
+            }
+            entries.put(stream, entry);
+        }
+        return entry;
+    }
+
+    private byte[] decode(COSStream stream) throws IOException {
+        byte[] bytes;
+        try (var is = stream.createInputStream()) {
+            bytes = is.readAllBytes();
+        }
+        entries.get(stream).size = bytes.length;
+        return bytes;
+    }
+
+    private static final class Entry {
+        private final COSObjectKey key;
+        private int size = -1;
+        private String digest;
+        private long digestNanos;
+        private byte[] bytes;
+
+        private Entry(COSObjectKey key) {
+            this.key = key;
+        }
+
+        private Entry snapshot() {
+            var copy = new Entry(key);
+            copy.size = size;
+            copy.digest = digest;
+            copy.digestNanos = digestNanos;
+            return copy;
+        }
+    }
+}
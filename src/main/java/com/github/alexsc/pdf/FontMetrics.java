@@ -0,0 +1,138 @@
+package com.github.alexsc.pdf;
+
+/**
+ * Result of processing one font resource of a page.
+ */
+public class FontMetrics {
+    public enum Status {
+        /**
+         * The font program was replaced by a subset.
+         */
+        SUBSET,
+        /**
+         * The subset of an identical program was reused.
+         */
+        CACHED,
+        /**
+         * The font program was replaced by a subset shared with other subsets of the same face.
+         */
+        MERGED,
+        /**
+         * The font is not used and was removed from the page resources.
+         */
+        REMOVED,
+        /**
+         * The font dictionary was already processed on an earlier page.
+         */
+        SHARED,
+        /**
+         * No subsetting path changed the font.
+         */
+        UNCHANGED,
+        /**
+         * Kept by the selection policy or because the time budget was exhausted.
+         */
+        SKIPPED,
+        FAILED
+    }
+
+    private final int page;
+    private final String resourceName;
+    private final String fontName;
+    private final String fontType;
+    private final String digest;
+    private Status status = Status.UNCHANGED;
+    private long bytesBefore;
+    private long bytesAfter;
+    private long digestNanos;
+    private long subsetNanos;
+    private Exception error;
+
+    public FontMetrics(int page, String resourceName, String fontName, String fontType, String digest) {
+        this.page = page;
+        this.resourceName = resourceName;
+        this.fontName = fontName;
+        this.fontType = fontType;
+        this.digest = digest;
+    }
+
+    public FontMetrics setStatus(Status status) {
+        this.status = status;
+        return this;
+    }
+
+    /**
+     * Decoded size of the font program before and after processing.
+     */
+    public FontMetrics setBytes(long bytesBefore, long bytesAfter) {
+        this.bytesBefore = bytesBefore;
+        this.bytesAfter = bytesAfter;
+        return this;
+    }
+
+    public FontMetrics setDigestNanos(long digestNanos) {
+        this.digestNanos = digestNanos;
+        return this;
+    }
+
+    /**
+     * Time spent subsetting the font program, 0 when the subset was reused.
+     */
+    public FontMetrics setSubsetNanos(long subsetNanos) {
+        this.subsetNanos = subsetNanos;
+        return this;
+    }
+
+    public FontMetrics setError(Exception error) {
+        this.error = error;
+        this.status = Status.FAILED;
+        return this;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public String getResourceName() {
+        return resourceName;
+    }
+
+    public String getFontName() {
+        return fontName;
+    }
+
+    /**
+     * Font subtype with its program type, e.g. {@code Type1C} or {@code CIDFontType2}.
+     */
+    public String getFontType() {
+        return fontType;
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getBytesBefore() {
+        return bytesBefore;
+    }
+
+    public long getBytesAfter() {
+        return bytesAfter;
+    }
+
+    public long getDigestNanos() {
+        return digestNanos;
+    }
+
+    public long getSubsetNanos() {
+        return subsetNanos;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+}
@@ -0,0 +1,158 @@
+package com.github.alexsc.pdf;
+
+import org.apache.pdfbox.cos.*;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.ResourceCache;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType3Font;
+import org.apache.pdfbox.pdmodel.interactive.form.PDAcroForm;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Visits the fonts of every resource dictionary reachable from the pages of a document: page resources,
+ * form XObjects, tiling patterns, Type3 glyph procedures and the appearance streams of annotations in all
+ * their states. These are the streams {@link GlyphUsageCollector} interprets.
+ * <p>
+ * Resource and font dictionaries are visited once, however many pages or XObjects share them, with the
+ * index of the first page reaching them.
+ */
+public final class FontResourceWalker {
+    private static final COSName[] APPEARANCE_KEYS = {COSName.N, COSName.R, COSName.D};
+
+    @FunctionalInterface
+    public interface FontVisitor {
+        void visit(int page, COSDictionary fonts, COSName name, PDFont font) throws IOException;
+    }
+
+    private final ResourceCache resourceCache;
+    private final FontVisitor visitor;
+    private final Set<COSBase> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    private int page;
+
+    private FontResourceWalker(ResourceCache resourceCache, FontVisitor visitor) {
+        this.resourceCache = resourceCache;
+        this.visitor = visitor;
+    }
+
+    /**
+     * Visits the fonts in page order.
+     */
+    public static void walk(PDDocument doc, FontVisitor visitor) throws IOException {
+        var walker = new FontResourceWalker(doc.getResourceCache(), visitor);
+        for (int i = 0; i < doc.getNumberOfPages(); i++) {
+            walker.page = i;
+            var page = doc.getPage(i);
+            var resources = page.getResources();
+            walker.visitResources(resources != null ? resources.getCOSObject() : null);
+            var annotations = page.getCOSObject().getCOSArray(COSName.ANNOTS);
+            if (annotations == null) {
+                continue;
+            }
+            for (int j = 0; j < annotations.size(); j++) {
+                if (annotations.getObject(j) instanceof COSDictionary) {
+                    for (var appearance : getAppearanceStreams((COSDictionary) annotations.getObject(j))) {
+                        walker.visitStream(appearance);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits the fonts of the form's default resources, with page -1.
+     */
+    public static void walkFormFonts(PDAcroForm acroForm, FontVisitor visitor) throws IOException {
+        var resources = acroForm.getDefaultResources();
+        var fonts = resources != null ? resources.getCOSObject().getCOSDictionary(COSName.FONT) : null;
+        if (fonts == null) {
+            return;
+        }
+        for (var name : fonts.keySet()) {
+            var font = resources.getFont(name);
+            if (font != null) {
+                visitor.visit(-1, fonts, name, font);
+            }
+        }
+    }
+
+    /**
+     * @return the normal, rollover and down appearance streams of the annotation, of all states
+     */
+    static List<COSStream> getAppearanceStreams(COSDictionary annotation) {
+        List<COSStream> streams = new ArrayList<>();
+        var appearances = annotation.getCOSDictionary(COSName.AP);
+        if (appearances == null) {
+            return streams;
+        }
+        for (var key : APPEARANCE_KEYS) {
+            var entry = appearances.getDictionaryObject(key);
+            if (entry instanceof COSStream) {
+                streams.add((COSStream) entry);
+            } else if (entry instanceof COSDictionary) {
+                for (var state : ((COSDictionary) entry).getValues()) {
+                    var stream = state instanceof COSObject ? ((COSObject) state).getObject() : state;
+                    if (stream instanceof COSStream) {
+                        streams.add((COSStream) stream);
+                    }
+                }
+            }
+        }
+        return streams;
+    }
+
+    private void visitStream(COSStream stream) throws IOException {
+        if (visited.add(stream)) {
+            visitResources(stream.getCOSDictionary(COSName.RESOURCES));
+        }
+    }
+
+    private void visitResources(COSDictionary dictionary) throws IOException {
+        if (dictionary == null || !visited.add(dictionary)) {
+            return;
+        }
+        var fonts = dictionary.getCOSDictionary(COSName.FONT);
+        if (fonts != null && visited.add(fonts)) {
+            var resources = new PDResources(dictionary, resourceCache);
+            for (var name : fonts.keySet()) {
+                var font = resources.getFont(name);
+                if (font == null) {
+                    continue;
+                }
+                visitor.visit(page, fonts, name, font);
+                if (font instanceof PDType3Font && visited.add(font.getCOSObject())) {
+                    visitType3Font((PDType3Font) font);
+                }
+            }
+        }
+        // Images are not loaded, only streams which may have resources of their own are followed
+        for (var key : new COSName[]{COSName.XOBJECT, COSName.PATTERN}) {
+            var objects = dictionary.getCOSDictionary(key);
+            if (objects == null) {
+                continue;
+            }
+            for (var name : objects.keySet()) {
+                var object = objects.getDictionaryObject(name);
+                if (object instanceof COSStream && !COSName.IMAGE.equals(((COSStream) object).getCOSName(COSName.SUBTYPE))) {
+                    visitStream((COSStream) object);
+                }
+            }
+        }
+    }
+
+    private void visitType3Font(PDType3Font font) throws IOException {
+        visitResources(font.getCOSObject().getCOSDictionary(COSName.RESOURCES));
+        var charProcs = font.getCharProcs();
+        if (charProcs == null) {
+            return;
+        }
+        for (var charProc : charProcs.getValues()) {
+            var stream = charProc instanceof COSObject ? ((COSObject) charProc).getObject() : charProc;
+            if (stream instanceof COSStream) {
+                visitStream((COSStream) stream);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.alexsc.pdf;
+
+import org.apache.pdfbox.cos.*;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Points all references to byte-identical font programs and ToUnicode CMaps at a single stream, so each is
+ * written once. Streams are identical if their decoded content and their dictionaries, apart from length and
+ * filters, are equal.
+ * <p>
+ * Fonts are found wherever {@link FontResourceWalker} finds them, including the form's default resources.
+ */
+public class FontStreamDeduplicator {
+    private static final Set<COSName> ENCODING_KEYS = Set.of(COSName.LENGTH, COSName.FILTER, COSName.DECODE_PARMS, COSName.DL);
+    private static final COSName[] FONT_FILE_KEYS = {COSName.FONT_FILE, COSName.FONT_FILE2, COSName.FONT_FILE3};
+
+    private final Map<String, COSStream> streamsBySignature = new HashMap<>();
+    private final Map<COSStream, String> signatures = new IdentityHashMap<>();
+    private final Set<COSBase> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    private int replaced;
+
+    private FontStreamDeduplicator() {
+    }
+
+    /**
+     * @return number of references changed to another stream
+     */
+    public static int deduplicate(PDDocument doc) throws IOException {
+        var deduplicator = new FontStreamDeduplicator();
+        FontResourceWalker.FontVisitor visitor = (page, fonts, name, font) -> deduplicator.visitFont(font.getCOSObject());
+        FontResourceWalker.walk(doc, visitor);
+        var acroForm = doc.getDocumentCatalog().getAcroForm();
+        if (acroForm != null) {
+            FontResourceWalker.walkFormFonts(acroForm, visitor);
+        }
+        return deduplicator.replaced;
+    }
+
+    private void visitFont(COSDictionary font) throws IOException {
+        if (!visited.add(font)) {
+            return;
+        }
+        deduplicate(font, COSName.TO_UNICODE);
+        var descriptor = font.getCOSDictionary(COSName.FONT_DESC);
+        if (descriptor != null) {
+            for (var key : FONT_FILE_KEYS) {
+                deduplicate(descriptor, key);
+            }
+        }
+        var descendants = font.getCOSArray(COSName.DESCENDANT_FONTS);
+        if (descendants != null) {
+            for (int i = 0; i < descendants.size(); i++) {
+                if (descendants.getObject(i) instanceof COSDictionary) {
+                    visitFont((COSDictionary) descendants.getObject(i));
+                }
+            }
+        }
+    }
+
+    private void deduplicate(COSDictionary parent, COSName key) throws IOException {
+        var stream = parent.getCOSStream(key);
+        if (stream == null) {
+            return;
+        }
+        var signature = signatures.get(stream);
+        if (signature == null) {
+            signature = signature(stream);
+            signatures.put(stream, signature);
+        }
+        var canonical = streamsBySignature.putIfAbsent(signature, stream);
+        if (canonical != null && canonical != stream) {
+            parent.setItem(key, canonical);
+            replaced++;
+        }
+    }
+
+    private static String signature(COSStream stream) throws IOException {
+        String digest;
+        try (var is = stream.createInputStream()) {
+            digest = FontDigest.of(FontDigest.Algorithm.SHA1, is).getKey();
+        }
+        var signature = new StringBuilder(digest);
+        var keys = new TreeMap<String, COSBase>();
+        for (var entry : stream.entrySet()) {
+            if (!ENCODING_KEYS.contains(entry.getKey())) {
+                keys.put(entry.getKey().getName(), entry.getValue());
+            }
+        }
+        for (var entry : keys.entrySet()) {
+            var value = entry.getValue() instanceof COSObject ? ((COSObject) entry.getValue()).getObject() : entry.getValue();
+            signature.append('|').append(entry.getKey()).append('=').append(value);
+        }
+        return signature.toString();
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.alexsc.pdf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Subset font programs shared between documents, keyed by the SHA-256 digest of the original font program
+ * and of the set of glyphs kept in the subset. Entries may come from other documents or uploads, so the key
+ * does not depend on the digest configured to identify fonts within a document.
+ * <p>
+ * Entries are held in an LRU map bounded by the total size of the cached programs, and optionally
+ * persisted as one file per entry in a local directory. Thread-safe.
+ */
+public class FontSubsetCache {
+    @FunctionalInterface
+    public interface Subsetter {
+        byte[] subset() throws IOException;
+    }
+
+    private final long maxBytes;
+    private final Path directory;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * @param maxBytes  total size of subsets kept in memory, 0 disables the in-memory cache
+     * @param directory directory for persisted subsets, or null to keep them in memory only
+     */
+    public FontSubsetCache(long maxBytes, Path directory) {
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+    }
+
+    public FontSubsetCache(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    /**
+     * Cache which never stores anything.
+     */
+    public static FontSubsetCache disabled() {
+        return new FontSubsetCache(0, null);
+    }
+
+    /**
+     * Returns the cached subset or computes and stores it.
+     *
+     * @param kind    subsetting method, so different subsetters of the same program do not share entries
+     * @param program original font program
+     * @param glyphs  glyph ids kept in the subset
+     */
+    public byte[] computeIfAbsent(String kind, byte[] program, GlyphSet glyphs, Subsetter subsetter) throws IOException {
+        return computeIfAbsent(kind, List.of(program), glyphs, subsetter);
+    }
+
+    /**
+     * Returns the cached subset of several programs combined into one, or computes and stores it.
+     *
+     * @param programs original font programs, in the order they are combined
+     */
+    public byte[] computeIfAbsent(String kind, List<byte[]> programs, GlyphSet glyphs, Subsetter subsetter) throws IOException {
+        if (maxBytes <= 0 && directory == null) {
+            return subsetter.subset();
+        }
+
+        var key = kind + "-" + programDigest(programs) + "-" + glyphSetDigest(glyphs);
+        var bytes = getFromMemory(key);
+        if (bytes != null) {
+            return bytes;
+        }
+
+        Path file = directory != null ? directory.resolve(key + ".bin") : null;
+        if (file != null && Files.isRegularFile(file)) {
+            bytes = Files.readAllBytes(file);
+        } else {
+            bytes = subsetter.subset();
+            if (file != null) {
+                store(file, bytes);
+            }
+        }
+        putInMemory(key, bytes);
+        return bytes;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private synchronized byte[] getFromMemory(String key) {
+        return entries.get(key);
+    }
+
+    private synchronized void putInMemory(String key, byte[] bytes) {
+        if (bytes.length > maxBytes) {
+            return;
+        }
+        var previous = entries.put(key, bytes);
+        if (previous != null) {
+            totalBytes -= previous.length;
+        }
+        totalBytes += bytes.length;
+
+        var it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, byte[]> eldest = it.next();
+            totalBytes -= eldest.getValue().length;
+            it.remove();
+        }
+    }
+
+    private void store(Path file, byte[] bytes) throws IOException {
+        Files.createDirectories(directory);
+        var tmp = Files.createTempFile(directory, "subset", ".tmp");
+        try {
+            Files.write(tmp, bytes);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    static String programDigest(List<byte[]> programs) {
+        if (programs.size() == 1) {
+            return FontDigest.of(FontDigest.Algorithm.SHA256, programs.get(0)).getKey();
+        }
+        var digests = new StringBuilder();
+        for (var program : programs) {
+            digests.append(FontDigest.of(FontDigest.Algorithm.SHA256, program).getKey()).append(',');
+        }
+        return FontDigest.of(FontDigest.Algorithm.SHA256, digests.toString().getBytes(StandardCharsets.US_ASCII)).getKey();
+    }
+
+    /**
+     * Digest of the sorted glyph ids, written as deltas in variable-length encoding.
+     */
+    static String glyphSetDigest(GlyphSet glyphs) {
+        int[] sorted = glyphs.toArray();
+        var out = new ByteArrayOutputStream(sorted.length * 2);
+        int previous = -1;
+        for (int glyph : sorted) {
+            int delta = glyph - previous;
+            while ((delta & ~0x7F) != 0) {
+                out.write((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            out.write(delta);
+            previous = glyph;
+        }
+        return FontDigest.of(FontDigest.Algorithm.SHA256, out.toByteArray()).getKey();
+    }
+}
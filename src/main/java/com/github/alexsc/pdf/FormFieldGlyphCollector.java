@@ -0,0 +1,124 @@
+package com.github.alexsc.pdf;
+
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.contentstream.operator.OperatorName;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.interactive.form.PDAcroForm;
+import org.apache.pdfbox.pdmodel.interactive.form.PDChoice;
+import org.apache.pdfbox.pdmodel.interactive.form.PDField;
+import org.apache.pdfbox.pdmodel.interactive.form.PDTextField;
+import org.apache.pdfbox.pdmodel.interactive.form.PDVariableText;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the glyphs the form's default resource fonts need, without rendering: the values, default values
+ * and choice options of each text and choice field in the font selected by its default appearance (DA), plus
+ * a fixed set of characters for values entered later. Every default resource font is registered as used, so
+ * it is subset rather than removed.
+ */
+public class FormFieldGlyphCollector {
+    private final GlyphUsage glyphUsage;
+    private final String characters;
+
+    /**
+     * @param characters kept in every default resource font, as far as the font can encode them
+     */
+    public FormFieldGlyphCollector(GlyphUsage glyphUsage, String characters) {
+        this.glyphUsage = glyphUsage;
+        this.characters = characters;
+    }
+
+    public void collect(PDAcroForm acroForm) throws IOException {
+        var resources = acroForm.getDefaultResources();
+        if (resources == null) {
+            return;
+        }
+        for (var name : resources.getFontNames()) {
+            var font = resources.getFont(name);
+            if (font != null) {
+                glyphUsage.addFont(font);
+                addText(font, characters);
+            }
+        }
+
+        for (PDField field : acroForm.getFieldTree()) {
+            if (!(field instanceof PDVariableText)) {
+                continue;
+            }
+            List<String> appearances = new ArrayList<>();
+            appearances.add(((PDVariableText) field).getDefaultAppearance());
+            for (var widget : field.getWidgets()) {
+                appearances.add(widget.getCOSObject().getString(COSName.DA));
+            }
+            var texts = getTexts(field);
+            for (var appearance : appearances) {
+                var font = getFont(appearance, resources);
+                if (font != null) {
+                    for (var text : texts) {
+                        addText(font, text);
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<String> getTexts(PDField field) {
+        List<String> texts = new ArrayList<>();
+        if (field instanceof PDTextField) {
+            texts.add(((PDTextField) field).getValue());
+            texts.add(((PDTextField) field).getDefaultValue());
+        } else if (field instanceof PDChoice) {
+            texts.addAll(((PDChoice) field).getValue());
+            texts.addAll(((PDChoice) field).getOptionsDisplayValues());
+        }
+        return texts;
+    }
+
+    /**
+     * @return the font selected by the Tf operator of the default appearance, or null
+     */
+    private static PDFont getFont(String appearance, PDResources resources) throws IOException {
+        if (appearance == null || appearance.isEmpty()) {
+            return null;
+        }
+        COSName fontName = null;
+        COSName lastName = null;
+        for (var token : new PDFStreamParser(appearance.getBytes(StandardCharsets.ISO_8859_1)).parse()) {
+            if (token instanceof COSName) {
+                lastName = (COSName) token;
+            } else if (token instanceof Operator && OperatorName.SET_FONT_AND_SIZE.equals(((Operator) token).getName())) {
+                fontName = lastName;
+            }
+        }
+        return fontName != null ? resources.getFont(fontName) : null;
+    }
+
+    private void addText(PDFont font, String text) throws IOException {
+        if (text == null) {
+            return;
+        }
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            byte[] encoded;
+            try {
+                encoded = font.encode(new String(Character.toChars(codePoint)));
+            } catch (IllegalArgumentException e) {
+                // Not available in this font
+                continue;
+            }
+            var in = new ByteArrayInputStream(encoded);
+            while (in.available() > 0) {
+                glyphUsage.addCode(font, font.readCode(in));
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.github.alexsc.pdf;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+/**
+ * Set of non-negative character codes or glyph ids without boxing.
+ * <p>
+ * Values below 65536 are stored in a bitset once the set is dense. A sparse set keeps its values in an
+ * open-addressing hash table and switches to the bitset when the table would be larger; values of 65536
+ * and above always stay in the table. Not thread-safe.
+ */
+public final class GlyphSet {
+    private static final int DENSE_LIMIT = 1 << 16;
+    private static final int FREE = -1;
+    private static final long[] NO_WORDS = new long[0];
+
+    private boolean dense;
+    private long[] words = NO_WORDS;
+    private int[] table;
+    private int tableCount;
+    private int size;
+    // Largest value below DENSE_LIMIT, decides when the bitset gets cheaper than the table
+    private int maxSmallValue = -1;
+
+    private GlyphSet(boolean dense) {
+        this.dense = dense;
+    }
+
+    /**
+     * Set for 1-byte and 2-byte code spaces and glyph ids.
+     */
+    public static GlyphSet dense() {
+        return new GlyphSet(true);
+    }
+
+    /**
+     * Set for few values spread over a large range, such as the CIDs used from a CJK font.
+     */
+    public static GlyphSet sparse() {
+        return new GlyphSet(false);
+    }
+
+    public static GlyphSet of(Iterable<Integer> values) {
+        var set = dense();
+        for (int value : values) {
+            set.add(value);
+        }
+        return set;
+    }
+
+    /**
+     * @return true if the value was not in the set
+     */
+    public boolean add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value " + value);
+        }
+        if (value < DENSE_LIMIT) {
+            maxSmallValue = Math.max(maxSmallValue, value);
+            if (dense) {
+                return addBit(value);
+            }
+        }
+        if (!tableAdd(value)) {
+            return false;
+        }
+        if (!dense && maxSmallValue >= 0 && (long) table.length * Integer.BYTES > (maxSmallValue >> 3) + Long.BYTES) {
+            densify();
+        }
+        return true;
+    }
+
+    public void addAll(GlyphSet other) {
+        if (dense && other.dense && other.tableCount == 0) {
+            if (words.length < other.words.length) {
+                words = Arrays.copyOf(words, other.words.length);
+            }
+            int count = 0;
+            for (int i = 0; i < words.length; i++) {
+                if (i < other.words.length) {
+                    words[i] |= other.words[i];
+                }
+                count += Long.bitCount(words[i]);
+            }
+            size = count + tableCount;
+            maxSmallValue = Math.max(maxSmallValue, other.maxSmallValue);
+            return;
+        }
+        other.forEach(this::add);
+    }
+
+    public boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        if (dense && value < DENSE_LIMIT) {
+            int word = value >>> 6;
+            return word < words.length && (words[word] & (1L << value)) != 0;
+        }
+        return table != null && table[tableIndex(value)] == value;
+    }
+
+    public boolean containsAll(GlyphSet other) {
+        if (other.size > size) {
+            return false;
+        }
+        for (int value : other.toArray()) {
+            if (!contains(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Visits values, bitset values in ascending order first.
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < words.length; i++) {
+            long word = words[i];
+            while (word != 0) {
+                action.accept((i << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        if (table != null) {
+            for (int value : table) {
+                if (value != FREE) {
+                    action.accept(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return values in ascending order
+     */
+    public int[] toArray() {
+        var result = new int[size];
+        int[] index = {0};
+        forEach(value -> result[index[0]++] = value);
+        if (tableCount > 0) {
+            Arrays.sort(result);
+        }
+        return result;
+    }
+
+    /**
+     * Boxed copy for third-party APIs.
+     */
+    public Set<Integer> toSet() {
+        var result = new HashSet<Integer>(size * 2);
+        forEach(result::add);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GlyphSet)) {
+            return false;
+        }
+        return Arrays.equals(toArray(), ((GlyphSet) o).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    private boolean addBit(int value) {
+        int word = value >>> 6;
+        if (word >= words.length) {
+            words = Arrays.copyOf(words, Math.max(word + 1, Math.min(words.length * 2, DENSE_LIMIT >>> 6)));
+        }
+        long bit = 1L << value;
+        if ((words[word] & bit) != 0) {
+            return false;
+        }
+        words[word] |= bit;
+        size++;
+        return true;
+    }
+
+    private void densify() {
+        dense = true;
+        var values = table;
+        table = null;
+        tableCount = 0;
+        size = 0;
+        words = new long[(maxSmallValue >>> 6) + 1];
+        for (int value : values) {
+            if (value != FREE) {
+                if (value < DENSE_LIMIT) {
+                    addBit(value);
+                } else {
+                    tableAdd(value);
+                }
+            }
+        }
+    }
+
+    private boolean tableAdd(int value) {
+        if (table == null) {
+            table = new int[16];
+            Arrays.fill(table, FREE);
+        }
+        int index = tableIndex(value);
+        if (table[index] == value) {
+            return false;
+        }
+        table[index] = value;
+        tableCount++;
+        size++;
+        if (tableCount * 2 > table.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    private int tableIndex(int value) {
+        int mask = table.length - 1;
+        int hash = value * 0x9E3779B9;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        while (table[index] != FREE && table[index] != value) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void rehash() {
+        var values = table;
+        table = new int[values.length * 2];
+        Arrays.fill(table, FREE);
+        for (int value : values) {
+            if (value != FREE) {
+                table[tableIndex(value)] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.alexsc.pdf;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Used character codes per font, keyed by the digest of the embedded font program.
+ * Not thread-safe, concurrent scans use one instance per worker and {@link #addAll(GlyphUsage)} them.
+ */
+public class GlyphUsage {
+    private final Map<String, GlyphSet> usedCodes = new HashMap<>();
+    // Fonts resolved to their entry in usedCodes, so recording a glyph is a single identity lookup
+    private final Map<PDFont, GlyphSet> fontCodes = new IdentityHashMap<>();
+    private final FontFileRegistry fontFiles;
+
+    public GlyphUsage() {
+        this(new FontFileRegistry());
+    }
+
+    /**
+     * @param fontFiles registry of the scanned document, digests are taken from there
+     */
+    public GlyphUsage(FontFileRegistry fontFiles) {
+        this.fontFiles = fontFiles;
+    }
+
+    public void addFont(PDFont font) throws IOException {
+        getCodes(font);
+    }
+
+    public void addCode(PDFont font, int code) throws IOException {
+        getCodes(font).add(code);
+    }
+
+    public void addAll(GlyphUsage other) {
+        addAll(other.usedCodes);
+    }
+
+    /**
+     * @param codes used codes by font program digest, e.g. of a page scanned before
+     */
+    public void addAll(Map<String, GlyphSet> codes) {
+        codes.forEach((digest, fontCodes) -> usedCodes.computeIfAbsent(digest, k -> GlyphSet.sparse()).addAll(fontCodes));
+    }
+
+    public Map<String, GlyphSet> getUsedCodes() {
+        return usedCodes;
+    }
+
+    private GlyphSet getCodes(PDFont font) throws IOException {
+        var codes = fontCodes.get(font);
+        if (codes == null) {
+            var digest = fontFiles.getDigest(font);
+            codes = usedCodes.computeIfAbsent(digest, k -> font instanceof PDType0Font ? GlyphSet.sparse() : GlyphSet.dense());
+            fontCodes.put(font, codes);
+        }
+        return codes;
+    }
+}
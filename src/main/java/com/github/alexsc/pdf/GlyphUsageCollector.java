@@ -0,0 +1,163 @@
+package com.github.alexsc.pdf;
+
+import org.apache.pdfbox.contentstream.PDFStreamEngine;
+import org.apache.pdfbox.contentstream.operator.DrawObject;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.contentstream.operator.OperatorName;
+import org.apache.pdfbox.contentstream.operator.OperatorProcessor;
+import org.apache.pdfbox.contentstream.operator.state.*;
+import org.apache.pdfbox.contentstream.operator.text.*;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType3Font;
+import org.apache.pdfbox.pdmodel.graphics.pattern.PDTilingPattern;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationUnknown;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceStream;
+import org.apache.pdfbox.util.Matrix;
+import org.apache.pdfbox.util.Vector;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects used glyph codes without rendering: only text, graphics state and form XObject operators
+ * are interpreted, images and painting operators are ignored. Tiling patterns are interpreted when
+ * selected as color, Type3 glyph procedures when shown.
+ * Produces the same usage map as {@link CustomPdfRenderer#getUsedCodes()}.
+ */
+public class GlyphUsageCollector extends PDFStreamEngine {
+    private final PDDocument document;
+    private final GlyphUsage glyphUsage;
+    // Appearances, patterns and glyph procedures use the same glyphs each time they are drawn
+    private final Set<COSBase> scannedStreams = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    public GlyphUsageCollector(PDDocument document) {
+        this(document, new GlyphUsage());
+    }
+
+    public GlyphUsageCollector(PDDocument document, GlyphUsage glyphUsage) {
+        this.document = document;
+        this.glyphUsage = glyphUsage;
+
+        addOperator(new BeginText(this));
+        addOperator(new EndText(this));
+        addOperator(new SetFontAndSize(this, glyphUsage));
+        addOperator(new SetCharSpacing(this));
+        addOperator(new SetWordSpacing(this));
+        addOperator(new SetTextHorizontalScaling(this));
+        addOperator(new SetTextLeading(this));
+        addOperator(new SetTextRenderingMode(this));
+        addOperator(new SetTextRise(this));
+        addOperator(new MoveText(this));
+        addOperator(new MoveTextSetLeading(this));
+        addOperator(new NextLine(this));
+        addOperator(new SetMatrix(this));
+        addOperator(new ShowText(this));
+        addOperator(new ShowTextAdjusted(this));
+        addOperator(new ShowTextLine(this));
+        addOperator(new ShowTextLineAndSpace(this));
+
+        addOperator(new Save(this));
+        addOperator(new Restore(this));
+        addOperator(new Concatenate(this));
+        addOperator(new SetGraphicsStateParameters(this));
+        addOperator(new SetPattern(OperatorName.NON_STROKING_COLOR_N));
+        addOperator(new SetPattern(OperatorName.STROKING_COLOR_N));
+
+        // Form XObjects only, images are skipped
+        addOperator(new DrawObject(this));
+    }
+
+    public void scanPage(int pageIndex) throws IOException {
+        PDPage page = document.getPage(pageIndex);
+        processPage(page);
+        for (PDAnnotation annotation : page.getAnnotations()) {
+            // Appearances are generated for the annotations PageDrawer shows
+            if (annotation.isHidden() || annotation.isInvisible() && annotation instanceof PDAnnotationUnknown) {
+                continue;
+            }
+            var appearance = annotation.getAppearance();
+            if (appearance == null || appearance.getNormalAppearance() == null) {
+                annotation.constructAppearances(document);
+            }
+        }
+        scanAppearances(pageIndex);
+    }
+
+    /**
+     * Interprets the appearance streams of the page's annotations in all states, including those of hidden
+     * annotations and states not currently shown, as a viewer may show them later.
+     */
+    public void scanAppearances(int pageIndex) throws IOException {
+        PDPage page = document.getPage(pageIndex);
+        for (PDAnnotation annotation : page.getAnnotations()) {
+            for (var stream : FontResourceWalker.getAppearanceStreams(annotation.getCOSObject())) {
+                if (scannedStreams.add(stream)) {
+                    processChildStream(new PDAppearanceStream(stream), page);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void showGlyph(Matrix textRenderingMatrix, PDFont font, int code, Vector displacement) throws IOException {
+        glyphUsage.addCode(font, code);
+        if (font instanceof PDType3Font) {
+            // Glyph procedures may show text in other fonts
+            super.showGlyph(textRenderingMatrix, font, code, displacement);
+        }
+    }
+
+    @Override
+    protected void showType3Glyph(Matrix textRenderingMatrix, PDType3Font font, int code, Vector displacement) throws IOException {
+        var charProc = font.getCharProc(code);
+        if (charProc != null && scannedStreams.add(charProc.getCOSObject())) {
+            super.showType3Glyph(textRenderingMatrix, font, code, displacement);
+        }
+    }
+
+    public GlyphUsage getGlyphUsage() {
+        return glyphUsage;
+    }
+
+    public Map<String, GlyphSet> getUsedCodes() {
+        return glyphUsage.getUsedCodes();
+    }
+
+    /**
+     * scn and SCN operators, interpreting a tiling pattern once it is selected: the pattern is drawn by
+     * the next painting operator, which is not interpreted.
+     */
+    private class SetPattern extends OperatorProcessor {
+        private final String name;
+
+        SetPattern(String name) {
+            super(GlyphUsageCollector.this);
+            this.name = name;
+        }
+
+        @Override
+        public void process(Operator operator, List<COSBase> arguments) throws IOException {
+            if (arguments.isEmpty() || !(arguments.get(arguments.size() - 1) instanceof COSName)) {
+                return;
+            }
+            var pattern = getResources().getPattern((COSName) arguments.get(arguments.size() - 1));
+            if (pattern instanceof PDTilingPattern && scannedStreams.add(pattern.getCOSObject())) {
+                processTilingPattern((PDTilingPattern) pattern, null, null);
+            }
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+}
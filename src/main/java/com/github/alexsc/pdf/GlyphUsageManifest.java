@@ -0,0 +1,159 @@
+package com.github.alexsc.pdf;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * What an optimization run found, kept beside its output so the next run on a revised document only scans
+ * changed pages: the codes used on each page by {@link PageFingerprinter fingerprint}, and the codes each
+ * font program was subset to, both by digest of the original font program.
+ * <p>
+ * Written as a gzip stream of font digests followed by code sets, each code set as deltas in variable-length
+ * encoding, so an unchanged document costs a few bytes per page and font.
+ */
+public final class GlyphUsageManifest {
+    private static final int VERSION = 1;
+
+    private final FontDigest.Algorithm algorithm;
+    private final Map<String, Map<String, GlyphSet>> pageCodes = new LinkedHashMap<>();
+    private final Map<String, GlyphSet> subsetCodes = new LinkedHashMap<>();
+
+    public GlyphUsageManifest(FontDigest.Algorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * @return manifest of the previous run, or null if there is none or it was written with another
+     * digest algorithm or format
+     */
+    public static GlyphUsageManifest read(Path file, FontDigest.Algorithm algorithm) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (var in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != VERSION || !in.readUTF().equals(algorithm.name())) {
+                return null;
+            }
+            var manifest = new GlyphUsageManifest(algorithm);
+            var fonts = new String[in.readInt()];
+            for (int i = 0; i < fonts.length; i++) {
+                fonts[i] = in.readUTF();
+            }
+            manifest.subsetCodes.putAll(readCodes(in, fonts));
+            int pages = in.readInt();
+            for (int i = 0; i < pages; i++) {
+                var fingerprint = in.readUTF();
+                manifest.pageCodes.put(fingerprint, readCodes(in, fonts));
+            }
+            return manifest;
+        } catch (EOFException | ArrayIndexOutOfBoundsException | UTFDataFormatException e) {
+            throw new IOException("Corrupt manifest " + file, e);
+        }
+    }
+
+    public void write(Path file) throws IOException {
+        Map<String, Integer> fonts = new LinkedHashMap<>();
+        subsetCodes.keySet().forEach(font -> fonts.putIfAbsent(font, fonts.size()));
+        pageCodes.values().forEach(codes -> codes.keySet().forEach(font -> fonts.putIfAbsent(font, fonts.size())));
+
+        var directory = file.toAbsolutePath().getParent();
+        var tmp = Files.createTempFile(directory, "manifest", ".tmp");
+        try {
+            try (var out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+                out.writeInt(VERSION);
+                out.writeUTF(algorithm.name());
+                out.writeInt(fonts.size());
+                for (var font : fonts.keySet()) {
+                    out.writeUTF(font);
+                }
+                writeCodes(out, subsetCodes, fonts);
+                out.writeInt(pageCodes.size());
+                for (var entry : pageCodes.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    writeCodes(out, entry.getValue(), fonts);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * @return codes used on a page with the fingerprint by font program digest, or null for an unknown page
+     */
+    public Map<String, GlyphSet> getPageCodes(String fingerprint) {
+        return pageCodes.get(fingerprint);
+    }
+
+    public void putPageCodes(String fingerprint, Map<String, GlyphSet> codes) {
+        pageCodes.put(fingerprint, codes);
+    }
+
+    /**
+     * @return codes the font program was subset to, or null if not subset
+     */
+    public GlyphSet getSubsetCodes(String fontDigest) {
+        return subsetCodes.get(fontDigest);
+    }
+
+    public void putSubsetCodes(String fontDigest, GlyphSet codes) {
+        subsetCodes.put(fontDigest, codes);
+    }
+
+    private static void writeCodes(DataOutputStream out, Map<String, GlyphSet> codes, Map<String, Integer> fonts) throws IOException {
+        out.writeInt(codes.size());
+        for (var entry : codes.entrySet()) {
+            out.writeInt(fonts.get(entry.getKey()));
+            int[] values = entry.getValue().toArray();
+            writeVarInt(out, values.length);
+            int previous = -1;
+            for (int value : values) {
+                writeVarInt(out, value - previous);
+                previous = value;
+            }
+        }
+    }
+
+    private static Map<String, GlyphSet> readCodes(DataInputStream in, String[] fonts) throws IOException {
+        Map<String, GlyphSet> codes = new LinkedHashMap<>();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            var font = fonts[in.readInt()];
+            var set = GlyphSet.sparse();
+            int size = readVarInt(in);
+            int value = -1;
+            for (int j = 0; j < size; j++) {
+                value += readVarInt(in);
+                set.add(value);
+            }
+            codes.put(font, set);
+        }
+        return codes;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.alexsc.pdf;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Runs glyph usage collection over all pages of a document, either on the given document
+ * or concurrently on several copies of it.
+ */
+public class GlyphUsageScanner {
+    @FunctionalInterface
+    public interface DocumentOpener {
+        PDDocument open() throws IOException;
+    }
+
+    private GlyphUsageScanner() {
+        // Utility class
+    }
+
+    public static GlyphUsage scan(PDDocument doc, FontFileRegistry fontFiles, boolean render) throws IOException {
+        var glyphUsage = new GlyphUsage(fontFiles);
+        scanPages(doc, glyphUsage, render, 0, 1);
+        return glyphUsage;
+    }
+
+    /**
+     * @return usage of the page alone
+     */
+    public static GlyphUsage scanPage(PDDocument doc, FontFileRegistry fontFiles, boolean render, int page) throws IOException {
+        var glyphUsage = new GlyphUsage(fontFiles);
+        scanPages(doc, glyphUsage, render, page, doc.getNumberOfPages());
+        return glyphUsage;
+    }
+
+    /**
+     * PDDocument is not thread-safe, so every worker opens its own copy of the document and scans every
+     * {@code parallelism}-th page of it. Font digests are shared between the workers by object key.
+     *
+     * @param fontFiles registry of the document the result is applied to
+     */
+    public static GlyphUsage scanParallel(DocumentOpener opener, FontFileRegistry fontFiles, int pageCount, int parallelism,
+                                          boolean render) throws IOException {
+        int workers = Math.min(parallelism, pageCount);
+        var executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<GlyphUsage>> futures = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                int firstPage = w;
+                futures.add(executor.submit(() -> {
+                    var glyphUsage = new GlyphUsage(fontFiles.forCopyOfDocument());
+                    try (var doc = opener.open()) {
+                        scanPages(doc, glyphUsage, render, firstPage, workers);
+                    }
+                    return glyphUsage;
+                }));
+            }
+
+            var result = new GlyphUsage(fontFiles);
+            for (var future : futures) {
+                result.addAll(future.get());
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void scanPages(PDDocument doc, GlyphUsage glyphUsage, boolean render, int firstPage, int step) throws IOException {
+        if (render) {
+            var renderer = new CustomPdfRenderer(doc, glyphUsage);
+            // Appearances the renderer does not show, e.g. other states of check boxes
+            var collector = new GlyphUsageCollector(doc, glyphUsage);
+            for (int i = firstPage; i < doc.getNumberOfPages(); i += step) {
+                renderer.renderImage(i);
+                collector.scanAppearances(i);
+            }
+        } else {
+            var collector = new GlyphUsageCollector(doc, glyphUsage);
+            for (int i = firstPage; i < doc.getNumberOfPages(); i += step) {
+                collector.scanPage(i);
+            }
+        }
+    }
+}
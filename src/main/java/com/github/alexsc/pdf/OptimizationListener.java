@@ -0,0 +1,48 @@
+package com.github.alexsc.pdf;
+
+import java.io.File;
+
+/**
+ * Receives timings and per-font results of document optimization. Methods are called from the thread
+ * optimizing the document; a listener shared between documents processed in parallel must be thread-safe.
+ * All methods do nothing by default.
+ */
+public interface OptimizationListener {
+    OptimizationListener NONE = new OptimizationListener() {
+    };
+
+    enum Phase {
+        LOAD,
+        /**
+         * Collecting used glyphs, includes digesting fonts seen while scanning.
+         */
+        SCAN,
+        /**
+         * Finding fonts on pages and preparing their subsetting.
+         */
+        PLAN,
+        /**
+         * Subsetting fonts and putting the subsets into the document.
+         */
+        SUBSET,
+        SAVE
+    }
+
+    default void documentStarted(File input) {
+    }
+
+    default void phaseFinished(File input, Phase phase, long nanos) {
+    }
+
+    /**
+     * Called once for each font resource of each page.
+     */
+    default void fontProcessed(File input, FontMetrics font) {
+    }
+
+    default void documentFinished(File input, File output, long inputBytes, long outputBytes, long nanos) {
+    }
+
+    default void documentFailed(File input, Exception e) {
+    }
+}
@@ -0,0 +1,196 @@
+package com.github.alexsc.pdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Listener collecting the results of all optimized documents into a JSON report. Thread-safe.
+ */
+public class OptimizationReport implements OptimizationListener {
+    private final Map<File, DocumentRecord> documents = new LinkedHashMap<>();
+
+    private static final class DocumentRecord {
+        private final File input;
+        private File output;
+        private long inputBytes;
+        private long outputBytes;
+        private long nanos;
+        private String error;
+        private final Map<Phase, Long> phases = new EnumMap<>(Phase.class);
+        private final List<FontMetrics> fonts = new ArrayList<>();
+
+        private DocumentRecord(File input) {
+            this.input = input;
+        }
+    }
+
+    private synchronized DocumentRecord document(File input) {
+        return documents.computeIfAbsent(input, DocumentRecord::new);
+    }
+
+    @Override
+    public void documentStarted(File input) {
+        synchronized (this) {
+            // A document processed again replaces its earlier record
+            documents.remove(input);
+        }
+        document(input);
+    }
+
+    @Override
+    public void phaseFinished(File input, Phase phase, long nanos) {
+        var document = document(input);
+        synchronized (document) {
+            document.phases.merge(phase, nanos, Long::sum);
+        }
+    }
+
+    @Override
+    public void fontProcessed(File input, FontMetrics font) {
+        var document = document(input);
+        synchronized (document) {
+            document.fonts.add(font);
+        }
+    }
+
+    @Override
+    public void documentFinished(File input, File output, long inputBytes, long outputBytes, long nanos) {
+        var document = document(input);
+        synchronized (document) {
+            document.output = output;
+            document.inputBytes = inputBytes;
+            document.outputBytes = outputBytes;
+            document.nanos = nanos;
+        }
+    }
+
+    @Override
+    public void documentFailed(File input, Exception e) {
+        var document = document(input);
+        synchronized (document) {
+            document.error = String.valueOf(e);
+        }
+    }
+
+    public void writeJson(Path path) throws IOException {
+        try (var writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writeJson(writer);
+        }
+    }
+
+    public void writeJson(Writer writer) throws IOException {
+        List<DocumentRecord> records;
+        synchronized (this) {
+            records = new ArrayList<>(documents.values());
+        }
+        writer.write("{\"documents\": [");
+        for (int i = 0; i < records.size(); i++) {
+            var document = records.get(i);
+            synchronized (document) {
+                writer.write(i == 0 ? "\n" : ",\n");
+                writeDocument(writer, document);
+            }
+        }
+        writer.write("\n]}\n");
+    }
+
+    private static void writeDocument(Writer writer, DocumentRecord document) throws IOException {
+        int cacheHits = 0;
+        int removed = 0;
+        int failures = 0;
+        for (var font : document.fonts) {
+            switch (font.getStatus()) {
+                case CACHED:
+                    cacheHits++;
+                    break;
+                case REMOVED:
+                    removed++;
+                    break;
+                case FAILED:
+                    failures++;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        writer.write("  {\"input\": " + string(document.input.getPath()));
+        writer.write(", \"output\": " + (document.output != null ? string(document.output.getPath()) : "null"));
+        writer.write(", \"inputBytes\": " + document.inputBytes);
+        writer.write(", \"outputBytes\": " + document.outputBytes);
+        writer.write(", \"nanos\": " + document.nanos);
+        writer.write(", \"error\": " + (document.error != null ? string(document.error) : "null"));
+        writer.write(",\n   \"phaseNanos\": {");
+        var separator = "";
+        for (var phase : document.phases.entrySet()) {
+            writer.write(separator + string(phase.getKey().name().toLowerCase(Locale.ROOT)) + ": " + phase.getValue());
+            separator = ", ";
+        }
+        writer.write("}");
+        writer.write(",\n   \"cacheHits\": " + cacheHits + ", \"removedFonts\": " + removed + ", \"failures\": " + failures);
+        writer.write(",\n   \"fonts\": [");
+        for (int i = 0; i < document.fonts.size(); i++) {
+            var font = document.fonts.get(i);
+            writer.write(i == 0 ? "\n" : ",\n");
+            writer.write("    {\"page\": " + font.getPage());
+            writer.write(", \"resource\": " + string(font.getResourceName()));
+            writer.write(", \"name\": " + string(font.getFontName()));
+            writer.write(", \"type\": " + string(font.getFontType()));
+            writer.write(", \"digest\": " + string(font.getDigest()));
+            writer.write(", \"status\": " + string(font.getStatus().name().toLowerCase(Locale.ROOT)));
+            writer.write(", \"bytesBefore\": " + font.getBytesBefore());
+            writer.write(", \"bytesAfter\": " + font.getBytesAfter());
+            writer.write(", \"digestNanos\": " + font.getDigestNanos());
+            writer.write(", \"subsetNanos\": " + font.getSubsetNanos());
+            if (font.getError() != null) {
+                writer.write(", \"error\": " + string(String.valueOf(font.getError())));
+            }
+            writer.write("}");
+        }
+        writer.write(document.fonts.isEmpty() ? "]}" : "\n   ]}");
+    }
+
+    private static String string(String value) {
+        if (value == null) {
+            return "null";
+        }
+        var result = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    result.append("\\\"");
+                    break;
+                case '\\':
+                    result.append("\\\\");
+                    break;
+                case '\n':
+                    result.append("\\n");
+                    break;
+                case '\r':
+                    result.append("\\r");
+                    break;
+                case '\t':
+                    result.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        result.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        result.append(c);
+                    }
+            }
+        }
+        return result.append('"').toString();
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.alexsc.pdf;
+
+import org.apache.pdfbox.cos.*;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Fingerprints of what the glyph usage of each page depends on: its content streams, the resources they use,
+ * and its annotations with their appearance streams and field values. Streams are digested in their encoded
+ * form and once per document, so unchanged pages are recognized without decoding anything.
+ * <p>
+ * The form's default resources and appearance, used to generate missing appearances, are part of the
+ * fingerprint of every page.
+ */
+public final class PageFingerprinter {
+    // Entries of annotations and their fields which decide what is drawn. Others, such as actions and the
+    // page an annotation is on, lead to unrelated objects.
+    private static final Set<COSName> ANNOTATION_KEYS = Set.of(COSName.SUBTYPE, COSName.RECT, COSName.F, COSName.AP,
+            COSName.AS, COSName.MK, COSName.CONTENTS, COSName.DA, COSName.DR, COSName.FT, COSName.FF, COSName.V,
+            COSName.OPT, COSName.Q, COSName.MAX_LEN);
+
+    private final FontDigest.Algorithm algorithm;
+    private final Map<COSStream, String> streamDigests = new IdentityHashMap<>();
+    private final Set<COSBase> inProgress = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private PageFingerprinter(FontDigest.Algorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * @return fingerprint of each page, in page order
+     */
+    public static String[] fingerprint(PDDocument doc, FontDigest.Algorithm algorithm) throws IOException {
+        var fingerprinter = new PageFingerprinter(algorithm);
+        var common = new StringBuilder();
+        var acroForm = doc.getDocumentCatalog().getCOSObject().getCOSDictionary(COSName.ACRO_FORM);
+        if (acroForm != null) {
+            fingerprinter.append(common, acroForm.getDictionaryObject(COSName.DR));
+            fingerprinter.append(common, acroForm.getDictionaryObject(COSName.DA));
+        }
+
+        var fingerprints = new String[doc.getNumberOfPages()];
+        for (int i = 0; i < fingerprints.length; i++) {
+            var page = doc.getPage(i);
+            var text = new StringBuilder(common);
+            fingerprinter.append(text, page.getCOSObject().getDictionaryObject(COSName.CONTENTS));
+            var resources = page.getResources();
+            fingerprinter.append(text, resources != null ? resources.getCOSObject() : null);
+            var annotations = page.getCOSObject().getCOSArray(COSName.ANNOTS);
+            if (annotations != null) {
+                for (int j = 0; j < annotations.size(); j++) {
+                    if (annotations.getObject(j) instanceof COSDictionary) {
+                        fingerprinter.appendAnnotation(text, (COSDictionary) annotations.getObject(j));
+                    }
+                }
+            }
+            fingerprints[i] = FontDigest.of(algorithm, text.toString().getBytes(StandardCharsets.UTF_8)).getKey();
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Appends the drawing-related entries of the annotation and of the fields it belongs to.
+     */
+    private void appendAnnotation(StringBuilder out, COSDictionary annotation) throws IOException {
+        Set<COSDictionary> fields = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (var dictionary = annotation; dictionary != null && fields.add(dictionary); dictionary = dictionary.getCOSDictionary(COSName.PARENT)) {
+            out.append('{');
+            appendEntries(out, dictionary, ANNOTATION_KEYS);
+            out.append('}');
+        }
+    }
+
+    private void append(StringBuilder out, COSBase base) throws IOException {
+        if (base instanceof COSObject) {
+            base = ((COSObject) base).getObject();
+        }
+        if (base == null || base instanceof COSNull) {
+            out.append("null ");
+        } else if (base instanceof COSStream) {
+            out.append("stream ").append(getStreamDigest((COSStream) base)).append(' ');
+        } else if (base instanceof COSDictionary || base instanceof COSArray) {
+            if (!inProgress.add(base)) {
+                out.append("cycle ");
+                return;
+            }
+            if (base instanceof COSDictionary) {
+                out.append('{');
+                appendEntries(out, (COSDictionary) base, null);
+                out.append('}');
+            } else {
+                out.append('[');
+                for (var element : (COSArray) base) {
+                    append(out, element);
+                }
+                out.append(']');
+            }
+            inProgress.remove(base);
+        } else if (base instanceof COSString) {
+            out.append('<').append(((COSString) base).toHexString()).append("> ");
+        } else {
+            out.append(base).append(' ');
+        }
+    }
+
+    /**
+     * Appends the entries in key order, without the parent, which leads back up the page or field tree.
+     *
+     * @param keys entries to append, or null for all
+     */
+    private void appendEntries(StringBuilder out, COSDictionary dictionary, Set<COSName> keys) throws IOException {
+        var sorted = new TreeMap<String, COSBase>();
+        for (var entry : dictionary.entrySet()) {
+            if (!COSName.PARENT.equals(entry.getKey()) && (keys == null || keys.contains(entry.getKey()))) {
+                sorted.put(entry.getKey().getName(), entry.getValue());
+            }
+        }
+        for (var entry : sorted.entrySet()) {
+            out.append('/').append(entry.getKey()).append(' ');
+            append(out, entry.getValue());
+        }
+    }
+
+    private String getStreamDigest(COSStream stream) throws IOException {
+        var digest = streamDigests.get(stream);
+        if (digest != null) {
+            return digest;
+        }
+        if (!inProgress.add(stream)) {
+            return "cycle";
+        }
+        var text = new StringBuilder();
+        appendEntries(text, stream, null);
+        if (stream.hasData()) {
+            try (var is = stream.createRawInputStream()) {
+                text.append(FontDigest.of(algorithm, is).getKey());
+            }
+        }
+        inProgress.remove(stream);
+        digest = FontDigest.of(algorithm, text.toString().getBytes(StandardCharsets.UTF_8)).getKey();
+        streamDigests.put(stream, digest);
+        return digest;
+    }
+}
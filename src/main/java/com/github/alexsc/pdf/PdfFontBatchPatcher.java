@@ -0,0 +1,333 @@
+package com.github.alexsc.pdf;
+
+import com.itextpdf.io.font.FontSelectionPolicy;
+import com.itextpdf.io.font.PdfFontPatcher;
+import com.itextpdf.io.font.PdfFontPatcherOptions;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Optimizes many documents in one JVM.
+ * <p>
+ * Documents are processed by a fixed worker pool. To bound the heap, a document is only started when its
+ * estimated footprint (file size times {@link #setMemoryFactor(int)}, for each copy loaded to scan pages in
+ * parallel too) fits into the memory budget together with the documents already in flight.
+ */
+public class PdfFontBatchPatcher {
+    private static final long MB = 1024 * 1024;
+
+    private final File outputDir;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+    private int memoryFactor = 8;
+    private PdfFontPatcherOptions options = new PdfFontPatcherOptions().setSubsetCache(new FontSubsetCache(64 * MB));
+
+    public PdfFontBatchPatcher(File outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: PdfFontBatchPatcher [--threads N] [--memory-mb M] [--cache-dir D] [--report R.json] [--min-font-bytes B] [--min-unused-ratio R] [--skip-subset-fonts] [--time-budget-ms T] [--no-compress] [--merge-subsets] [--keep-form-fonts] [--form-chars C] [--incremental] <output dir> <input dir or file>...");
+            System.exit(2);
+        }
+
+        int i = 0;
+        Integer threads = null;
+        Long memoryMb = null;
+        String cacheDir = null;
+        String reportFile = null;
+        boolean compress = true;
+        boolean mergeSubsets = false;
+        boolean keepFormFonts = false;
+        String formChars = null;
+        boolean incremental = false;
+        var policy = new FontSelectionPolicy();
+        while (args[i].startsWith("--")) {
+            switch (args[i]) {
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--memory-mb":
+                    memoryMb = Long.parseLong(args[++i]);
+                    break;
+                case "--cache-dir":
+                    cacheDir = args[++i];
+                    break;
+                case "--report":
+                    reportFile = args[++i];
+                    break;
+                case "--min-font-bytes":
+                    policy.setMinFontSize(Integer.parseInt(args[++i]));
+                    break;
+                case "--min-unused-ratio":
+                    policy.setMinUnusedGlyphRatio(Double.parseDouble(args[++i]));
+                    break;
+                case "--skip-subset-fonts":
+                    policy.setSkipSubsetFonts(true);
+                    break;
+                case "--time-budget-ms":
+                    policy.setTimeBudgetMillis(Long.parseLong(args[++i]));
+                    break;
+                case "--no-compress":
+                    compress = false;
+                    break;
+                case "--merge-subsets":
+                    mergeSubsets = true;
+                    break;
+                case "--keep-form-fonts":
+                    keepFormFonts = true;
+                    break;
+                case "--form-chars":
+                    formChars = args[++i];
+                    break;
+                case "--incremental":
+                    incremental = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+            i++;
+        }
+
+        var patcher = new PdfFontBatchPatcher(new File(args[i++]));
+        if (threads != null) {
+            patcher.setThreads(threads);
+        }
+        if (memoryMb != null) {
+            patcher.setMemoryBudget(memoryMb * MB);
+        }
+        if (cacheDir != null) {
+            patcher.options.setSubsetCache(new FontSubsetCache(64 * MB, Path.of(cacheDir)));
+        }
+        patcher.options.setSelectionPolicy(policy);
+        if (!compress) {
+            patcher.options.setCompressParameters(CompressParameters.NO_COMPRESSION);
+        }
+        patcher.options.setMergeFontSubsets(mergeSubsets);
+        patcher.options.setKeepFormFonts(keepFormFonts);
+        if (formChars != null) {
+            patcher.options.setFormFontCharacters(formChars);
+        }
+        patcher.options.setIncremental(incremental);
+        var report = reportFile != null ? new OptimizationReport() : null;
+        if (report != null) {
+            patcher.options.setListener(report);
+        }
+        var results = patcher.process(collectInputs(Arrays.asList(args).subList(i, args.length)));
+        if (report != null) {
+            report.writeJson(Path.of(reportFile));
+        }
+        long failed = results.stream().filter(r -> r.getError() != null).count();
+        System.out.println("Processed " + results.size() + " files, " + failed + " failed");
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    public static List<File> collectInputs(List<String> paths) {
+        List<File> inputs = new ArrayList<>();
+        for (String path : paths) {
+            var file = new File(path);
+            if (file.isDirectory()) {
+                var children = file.listFiles((dir, name) -> name.toLowerCase(Locale.ROOT).endsWith(".pdf"));
+                if (children != null) {
+                    Arrays.sort(children);
+                    inputs.addAll(Arrays.asList(children));
+                }
+            } else {
+                inputs.add(file);
+            }
+        }
+        return inputs;
+    }
+
+    public PdfFontBatchPatcher setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public PdfFontBatchPatcher setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    /**
+     * Estimated heap needed per byte of input file.
+     */
+    public PdfFontBatchPatcher setMemoryFactor(int memoryFactor) {
+        this.memoryFactor = memoryFactor;
+        return this;
+    }
+
+    public PdfFontBatchPatcher setOptions(PdfFontPatcherOptions options) {
+        this.options = options;
+        return this;
+    }
+
+    /**
+     * Optimizes all inputs into the output directory and writes {@code summary.csv} there.
+     * Results are returned in input order, failures do not stop the batch. Outputs keep the input file name;
+     * an input whose name was already taken by an earlier one fails instead of overwriting its output.
+     * Errors such as {@link OutOfMemoryError} stop the batch: no further documents are started and the error
+     * is thrown.
+     */
+    public List<Result> process(List<File> inputs) throws IOException {
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Cannot create output directory " + outputDir);
+        }
+
+        // Permits are megabytes, a document larger than the whole budget runs alone
+        int budgetMb = (int) Math.max(1, memoryBudget / MB);
+        var memory = new Semaphore(budgetMb, true);
+        // Pages are scanned on a copy of the document per thread, incremental runs scan serially
+        int copies = options.getParallelism() > 1 && !options.isIncremental() ? 1 + options.getParallelism() : 1;
+        var executor = Executors.newFixedThreadPool(threads);
+        // Output names in use, lower case as file systems may ignore case
+        Map<String, File> outputNames = new HashMap<>();
+        var fatal = new AtomicReference<Error>();
+        List<Future<Result>> futures = new ArrayList<>();
+        try {
+            for (File input : inputs) {
+                var output = new File(outputDir, input.getName());
+                var previous = outputNames.putIfAbsent(input.getName().toLowerCase(Locale.ROOT), input);
+                if (previous != null) {
+                    var error = "Output " + output + " is already used by " + previous;
+                    futures.add(CompletableFuture.completedFuture(new Result(input, output, input.length(), 0, 0, error)));
+                    continue;
+                }
+                int permits = (int) Math.min(budgetMb, Math.max(1, input.length() * memoryFactor * copies / MB));
+                futures.add(executor.submit(() -> {
+                    memory.acquireUninterruptibly(permits);
+                    try {
+                        if (fatal.get() != null) {
+                            return null;
+                        }
+                        return processFile(input, output);
+                    } catch (Error e) {
+                        fatal.compareAndSet(null, e);
+                        throw e;
+                    } finally {
+                        memory.release(permits);
+                    }
+                }));
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (var future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+                if (fatal.get() != null) {
+                    throw fatal.get();
+                }
+            }
+            writeSummary(results, new File(outputDir, "summary.csv"));
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Result processFile(File input, File output) {
+        long start = System.nanoTime();
+        try {
+            if (output.getCanonicalFile().equals(input.getCanonicalFile())) {
+                throw new IOException("Output would overwrite input");
+            }
+            PdfFontPatcher.optimizeFonts(input, output, options);
+            return new Result(input, output, input.length(), output.length(), elapsedMillis(start), null);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new Result(input, output, input.length(), 0, elapsedMillis(start), e.toString());
+        }
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private static void writeSummary(List<Result> results, File file) throws IOException {
+        try (var out = new PrintWriter(file, StandardCharsets.UTF_8)) {
+            out.println("input,output,status,input_bytes,output_bytes,millis,error");
+            for (Result result : results) {
+                out.println(String.join(",",
+                        csv(result.getInput().getPath()),
+                        csv(result.getOutput().getPath()),
+                        result.getError() == null ? "ok" : "failed",
+                        Long.toString(result.getInputSize()),
+                        Long.toString(result.getOutputSize()),
+                        Long.toString(result.getMillis()),
+                        csv(result.getError() == null ? "" : result.getError())));
+            }
+        }
+    }
+
+    private static String csv(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    public static class Result {
+        private final File input;
+        private final File output;
+        private final long inputSize;
+        private final long outputSize;
+        private final long millis;
+        private final String error;
+
+        Result(File input, File output, long inputSize, long outputSize, long millis, String error) {
+            this.input = input;
+            this.output = output;
+            this.inputSize = inputSize;
+            this.outputSize = outputSize;
+            this.millis = millis;
+            this.error = error;
+        }
+
+        public File getInput() {
+            return input;
+        }
+
+        public File getOutput() {
+            return output;
+        }
+
+        public long getInputSize() {
+            return inputSize;
+        }
+
+        public long getOutputSize() {
+            return outputSize;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * @return failure description, or null when the file was optimized
+         */
+        public String getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.github.alexsc.pdf;
+
+import com.itextpdf.io.font.PdfFontPatcher;
+import com.itextpdf.io.font.PdfFontPatcherOptions;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resident optimizer, keeps classes, JIT and font caches warm between documents.
+ * <p>
+ * Sessions run over stdin/stdout or over connections to a loopback socket. A request is a 4-byte big-endian
+ * length followed by the PDF; length 0 or the end of the stream ends the session. A response is a status
+ * byte (0 for success), a 4-byte length and the optimized PDF or a UTF-8 error message. Requests are
+ * optimized in memory on a shared worker pool, responses follow the order of the requests. Requests over the
+ * maximum size are skipped unread and answered with an error, the session goes on.
+ */
+public class PdfFontPatcherServer {
+    private static final long MB = 1024 * 1024;
+    private static final int STATUS_OK = 0;
+    private static final int STATUS_ERROR = 1;
+    private static final long DEFAULT_MAX_REQUEST_MB = 256;
+
+    private final ExecutorService workers;
+    private final int maxPendingRequests;
+    private final long maxRequestBytes;
+    private final PdfFontPatcherOptions options;
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /**
+     * @param options shared by all requests, including their subset and digest caches
+     */
+    public PdfFontPatcherServer(int threads, PdfFontPatcherOptions options) {
+        this(threads, DEFAULT_MAX_REQUEST_MB * MB, options);
+    }
+
+    /**
+     * @param maxRequestBytes size of the largest PDF accepted, larger requests are answered with an error
+     * @param options         shared by all requests, including their subset and digest caches
+     */
+    public PdfFontPatcherServer(int threads, long maxRequestBytes, PdfFontPatcherOptions options) {
+        this.workers = Executors.newFixedThreadPool(threads);
+        this.maxPendingRequests = threads * 2;
+        this.maxRequestBytes = maxRequestBytes;
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long cacheMb = 256;
+        long maxRequestMb = DEFAULT_MAX_REQUEST_MB;
+        String cacheDir = null;
+        Integer port = null;
+        boolean stdio = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--cache-mb":
+                    cacheMb = Long.parseLong(args[++i]);
+                    break;
+                case "--max-request-mb":
+                    maxRequestMb = Long.parseLong(args[++i]);
+                    break;
+                case "--cache-dir":
+                    cacheDir = args[++i];
+                    break;
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--stdio":
+                    stdio = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (stdio == (port != null)) {
+            System.err.println("Usage: PdfFontPatcherServer [--threads N] [--cache-mb M] [--max-request-mb R] [--cache-dir D] (--stdio | --port P)");
+            System.exit(2);
+        }
+
+        var options = new PdfFontPatcherOptions()
+                .setSubsetCache(new FontSubsetCache(cacheMb * MB, cacheDir != null ? Path.of(cacheDir) : null))
+                .setDigestCache(new FontDigestCache(4096));
+        var server = new PdfFontPatcherServer(threads, maxRequestMb * MB, options);
+        if (stdio) {
+            // Standard output carries the responses, logging goes to standard error
+            var protocolOut = new FileOutputStream(FileDescriptor.out);
+            System.setOut(System.err);
+            try {
+                server.serve(System.in, protocolOut);
+            } finally {
+                server.shutdown();
+            }
+        } else {
+            server.listen(port);
+        }
+    }
+
+    /**
+     * Accepts connections on the loopback interface until the thread is interrupted, one session per connection.
+     */
+    public void listen(int port) throws IOException {
+        var connections = Executors.newCachedThreadPool();
+        try (var serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.err.println("Listening on " + serverSocket.getLocalSocketAddress());
+            while (!Thread.currentThread().isInterrupted()) {
+                Socket socket = serverSocket.accept();
+                connections.execute(() -> {
+                    try (socket) {
+                        serve(socket.getInputStream(), socket.getOutputStream());
+                    } catch (IOException e) {
+                        System.err.println("Connection failed: " + e);
+                    }
+                });
+            }
+        } finally {
+            connections.shutdownNow();
+            shutdown();
+        }
+    }
+
+    /**
+     * Runs one session. Requests are read on a separate thread, so documents of the session are optimized
+     * concurrently while earlier responses are written.
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        var input = new DataInputStream(new BufferedInputStream(in));
+        var output = new DataOutputStream(new BufferedOutputStream(out));
+        BlockingQueue<Future<byte[]>> pending = new ArrayBlockingQueue<>(maxPendingRequests);
+        var endOfSession = new CompletableFuture<byte[]>();
+        endOfSession.complete(null);
+
+        var reader = new Thread(() -> {
+            try {
+                while (true) {
+                    int length = readLength(input);
+                    if (length == 0) {
+                        break;
+                    }
+                    if (length > maxRequestBytes) {
+                        skipFully(input, length);
+                        pending.put(CompletableFuture.failedFuture(new IOException(
+                                "Request of " + length + " bytes exceeds the maximum of " + maxRequestBytes + " bytes")));
+                        continue;
+                    }
+                    var request = new byte[length];
+                    input.readFully(request);
+                    var name = "request-" + requestCount.incrementAndGet();
+                    pending.put(workers.submit(() -> optimize(name, request)));
+                }
+            } catch (IOException e) {
+                System.err.println("Reading request failed: " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    pending.put(endOfSession);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "pdf-font-patcher-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        try {
+            while (true) {
+                var response = pending.take();
+                if (response == endOfSession) {
+                    break;
+                }
+                try {
+                    writeResponse(output, STATUS_OK, response.get());
+                } catch (ExecutionException e) {
+                    writeResponse(output, STATUS_ERROR, String.valueOf(e.getCause()).getBytes(StandardCharsets.UTF_8));
+                }
+                if (pending.isEmpty()) {
+                    output.flush();
+                }
+            }
+            output.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reader.interrupt();
+        } catch (IOException e) {
+            // The client is gone, stop reading its requests
+            reader.interrupt();
+            throw e;
+        }
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    private byte[] optimize(String name, byte[] request) throws IOException {
+        var result = new ByteArrayOutputStream(request.length);
+        PdfFontPatcher.optimizeFonts(name, request, result, options);
+        return result.toByteArray();
+    }
+
+    /**
+     * @return length of the next request, 0 at the end of the session
+     */
+    private static int readLength(DataInputStream input) throws IOException {
+        int length;
+        try {
+            length = input.readInt();
+        } catch (EOFException e) {
+            return 0;
+        }
+        if (length < 0) {
+            throw new IOException("Invalid request length " + length);
+        }
+        return length;
+    }
+
+    private static void skipFully(InputStream input, long length) throws IOException {
+        var buffer = new byte[8192];
+        while (length > 0) {
+            int read = input.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (read < 0) {
+                throw new EOFException("Request truncated");
+            }
+            length -= read;
+        }
+    }
+
+    private static void writeResponse(DataOutputStream output, int status, byte[] payload) throws IOException {
+        output.writeByte(status);
+        output.writeInt(payload.length);
+        output.write(payload);
+    }
+}
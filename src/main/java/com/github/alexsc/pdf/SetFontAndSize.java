@@ -0,0 +1,65 @@
+package com.github.alexsc.pdf;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.pdfbox.contentstream.PDFStreamEngine;
+import org.apache.pdfbox.contentstream.operator.MissingOperandException;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.contentstream.operator.OperatorName;
+import org.apache.pdfbox.contentstream.operator.OperatorProcessor;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Tf operator which also registers every selected font in {@link GlyphUsage},
+ * so fonts selected without drawing any glyph are not treated as unused.
+ */
+class SetFontAndSize extends OperatorProcessor
+{
+    private static final Log LOG = LogFactory.getLog(org.apache.pdfbox.contentstream.operator.text.SetFontAndSize.class);
+
+    private final GlyphUsage glyphUsage;
+
+    SetFontAndSize(PDFStreamEngine context, GlyphUsage glyphUsage) {
+        super(context);
+        this.glyphUsage = glyphUsage;
+    }
+
+    @Override
+    public void process(Operator operator, List<COSBase> arguments) throws IOException
+    {
+        if (arguments.size() < 2) {
+            throw new MissingOperandException(operator, arguments);
+        }
+
+        COSBase base0 = arguments.get(0);
+        COSBase base1 = arguments.get(1);
+        if (!(base0 instanceof COSName))  {
+            return;
+        }
+        if (!(base1 instanceof COSNumber)) {
+            return;
+        }
+        COSName fontName = (COSName) base0;
+        float fontSize = ((COSNumber) base1).floatValue();
+        getContext().getGraphicsState().getTextState().setFontSize(fontSize);
+        PDFont font = getContext().getResources().getFont(fontName);
+        if (font == null) {
+            LOG.warn("font '" + fontName.getName() + "' not found in resources");
+        } else {
+            glyphUsage.addFont(font);
+        }
+        getContext().getGraphicsState().getTextState().setFont(font);
+    }
+
+    @Override
+    public String getName()
+    {
+        return OperatorName.SET_FONT_AND_SIZE;
+    }
+}
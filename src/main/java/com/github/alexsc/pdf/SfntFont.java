@@ -0,0 +1,298 @@
+package com.github.alexsc.pdf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+/**
+ * Table directory of a TrueType font program, with the glyph outlines addressed through {@code loca}, and
+ * writing of a program from its tables. Tables are views of the original bytes and are not copied.
+ */
+public final class SfntFont {
+    public static final String HEAD = "head";
+    public static final String MAXP = "maxp";
+    public static final String LOCA = "loca";
+    public static final String GLYF = "glyf";
+
+    // Tables used to draw glyphs of a CIDFontType2, which maps glyphs by CIDToGIDMap instead of cmap
+    private static final Set<String> CID_TABLES = Set.of("cvt ", "fpgm", GLYF, HEAD, "hhea", "hmtx", LOCA, MAXP, "prep", "vhea", "vmtx");
+    // Simple TrueType fonts also map codes through cmap and post, and may be checked for metrics and names
+    private static final Set<String> SIMPLE_TABLES = Set.of("cmap", "post", "OS/2", "name");
+
+    // Offsets within the head table
+    private static final int HEAD_CHECKSUM_ADJUSTMENT = 8;
+    private static final int HEAD_INDEX_TO_LOC_FORMAT = 50;
+    private static final int CHECKSUM_MAGIC = 0xB1B0AFBA;
+
+    // Flags of composite glyph components
+    private static final int ARG_1_AND_2_ARE_WORDS = 0x0001;
+    private static final int WE_HAVE_A_SCALE = 0x0008;
+    private static final int MORE_COMPONENTS = 0x0020;
+    private static final int WE_HAVE_AN_X_AND_Y_SCALE = 0x0040;
+    private static final int WE_HAVE_A_TWO_BY_TWO = 0x0080;
+
+    private final int sfntVersion;
+    private final Map<String, ByteBuffer> tables;
+    private final int numGlyphs;
+    private final ByteBuffer loca;
+    private final boolean longLoca;
+
+    private SfntFont(int sfntVersion, Map<String, ByteBuffer> tables) throws IOException {
+        this.sfntVersion = sfntVersion;
+        this.tables = tables;
+        var head = tables.get(HEAD);
+        var maxp = tables.get(MAXP);
+        this.loca = tables.get(LOCA);
+        if (head == null || maxp == null || loca == null || !tables.containsKey(GLYF)) {
+            throw new IOException("Not a TrueType font with glyf outlines, tables " + tables.keySet());
+        }
+        this.numGlyphs = maxp.getShort(4) & 0xFFFF;
+        this.longLoca = head.getShort(HEAD_INDEX_TO_LOC_FORMAT) != 0;
+        if (loca.limit() < (numGlyphs + 1) * (longLoca ? 4 : 2)) {
+            throw new IOException("Truncated loca table for " + numGlyphs + " glyphs");
+        }
+    }
+
+    public static SfntFont parse(byte[] bytes) throws IOException {
+        return parse(ByteBuffer.wrap(bytes));
+    }
+
+    public static SfntFont parse(ByteBuffer data) throws IOException {
+        data = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+        try {
+            int sfntVersion = data.getInt(0);
+            int numTables = data.getShort(4) & 0xFFFF;
+            Map<String, ByteBuffer> tables = new TreeMap<>();
+            for (int i = 0; i < numTables; i++) {
+                int record = 12 + i * 16;
+                var tag = new String(new char[]{(char) data.get(record), (char) data.get(record + 1),
+                        (char) data.get(record + 2), (char) data.get(record + 3)});
+                int offset = data.getInt(record + 8);
+                int length = data.getInt(record + 12);
+                if (offset < 0 || length < 0 || offset + length > data.limit()) {
+                    throw new IOException("Table " + tag + " outside of the font program");
+                }
+                tables.put(tag, data.duplicate().position(offset).limit(offset + length).slice());
+            }
+            return new SfntFont(sfntVersion, tables);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated font program", e);
+        }
+    }
+
+    public int getSfntVersion() {
+        return sfntVersion;
+    }
+
+    /**
+     * @return tags and contents, in tag order
+     */
+    public Map<String, ByteBuffer> getTables() {
+        return tables;
+    }
+
+    /**
+     * @return the table, or null if missing
+     */
+    public ByteBuffer getTable(String tag) {
+        var table = tables.get(tag);
+        return table != null ? table.duplicate() : null;
+    }
+
+    public int getNumGlyphs() {
+        return numGlyphs;
+    }
+
+    /**
+     * @return outline of the glyph, empty for glyphs without outline
+     */
+    public ByteBuffer getGlyph(int gid) throws IOException {
+        int start = glyphOffset(gid);
+        int end = glyphOffset(gid + 1);
+        var glyf = tables.get(GLYF);
+        if (start > end || end > glyf.limit()) {
+            throw new IOException("Invalid loca entry for glyph " + gid);
+        }
+        return glyf.duplicate().position(start).limit(end).slice();
+    }
+
+    /**
+     * Calls the action with the glyph id of each component of a composite glyph, does nothing for simple glyphs.
+     */
+    public static void forEachComponent(ByteBuffer glyph, IntConsumer action) throws IOException {
+        if (glyph.remaining() < 10 || glyph.getShort(glyph.position()) >= 0) {
+            return;
+        }
+        try {
+            int offset = glyph.position() + 10;
+            int flags;
+            do {
+                flags = glyph.getShort(offset) & 0xFFFF;
+                action.accept(glyph.getShort(offset + 2) & 0xFFFF);
+                offset += 4 + ((flags & ARG_1_AND_2_ARE_WORDS) != 0 ? 4 : 2);
+                if ((flags & WE_HAVE_A_SCALE) != 0) {
+                    offset += 2;
+                } else if ((flags & WE_HAVE_AN_X_AND_Y_SCALE) != 0) {
+                    offset += 4;
+                } else if ((flags & WE_HAVE_A_TWO_BY_TWO) != 0) {
+                    offset += 8;
+                }
+            } while ((flags & MORE_COMPONENTS) != 0);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated composite glyph", e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface GlyphSource {
+        ByteBuffer getGlyph(int gid) throws IOException;
+    }
+
+    /**
+     * @return the glyphs and .notdef, with the components of composite glyphs, all below {@code numGlyphs}
+     */
+    public static GlyphSet closeComposites(GlyphSet glyphs, int numGlyphs, GlyphSource source) throws IOException {
+        var kept = GlyphSet.dense();
+        var pending = GlyphSet.dense();
+        pending.add(0);
+        pending.addAll(glyphs);
+        while (!pending.isEmpty()) {
+            var queue = pending.toArray();
+            pending = GlyphSet.dense();
+            for (int gid : queue) {
+                if (gid < numGlyphs && kept.add(gid)) {
+                    forEachComponent(source.getGlyph(gid), pending::add);
+                }
+            }
+        }
+        return kept;
+    }
+
+    private int glyphOffset(int gid) {
+        return longLoca ? loca.getInt(gid * 4) : (loca.getShort(gid * 2) & 0xFFFF) * 2;
+    }
+
+    /**
+     * Removes tables not needed to draw glyphs in a PDF, such as layout tables and kerning.
+     *
+     * @param cidFont whether the program is used by a CIDFontType2 only, which needs no cmap, post and name
+     */
+    public static void retainPdfTables(Map<String, ByteBuffer> tables, boolean cidFont) {
+        tables.keySet().removeIf(tag -> !CID_TABLES.contains(tag) && (cidFont || !SIMPLE_TABLES.contains(tag)));
+    }
+
+    /**
+     * Replaces the {@code glyf} and {@code loca} tables by the given outlines and updates {@code head}.
+     *
+     * @param tables tables of the program, including {@code head}
+     * @param glyphs outline of each glyph id, empty for glyphs without outline
+     */
+    public static void setGlyphs(Map<String, ByteBuffer> tables, ByteBuffer[] glyphs) {
+        int size = 0;
+        for (var glyph : glyphs) {
+            size += pad2(glyph.remaining());
+        }
+        // Short offsets count 2-byte words, glyphs are padded to make them even
+        boolean longLoca = size / 2 > 0xFFFF;
+        var glyf = ByteBuffer.allocate(size);
+        var loca = ByteBuffer.allocate((glyphs.length + 1) * (longLoca ? 4 : 2));
+        for (var glyph : glyphs) {
+            putOffset(loca, glyf.position(), longLoca);
+            glyf.put(glyph.duplicate());
+            glyf.position(pad2(glyf.position()));
+        }
+        putOffset(loca, glyf.position(), longLoca);
+
+        var head = copy(tables.get(HEAD));
+        head.putShort(HEAD_INDEX_TO_LOC_FORMAT, (short) (longLoca ? 1 : 0));
+        tables.put(HEAD, head);
+        tables.put(GLYF, glyf.flip());
+        tables.put(LOCA, loca.flip());
+    }
+
+    /**
+     * Writes a font program with the tables in tag order and fresh checksums.
+     */
+    public static byte[] write(int sfntVersion, Map<String, ByteBuffer> tables) {
+        var sorted = new TreeMap<>(tables);
+        int numTables = sorted.size();
+        int size = 12 + numTables * 16;
+        for (var table : sorted.values()) {
+            size += pad4(table.remaining());
+        }
+
+        var out = ByteBuffer.allocate(size);
+        int entrySelector = 31 - Integer.numberOfLeadingZeros(Math.max(1, numTables));
+        int searchRange = (1 << entrySelector) * 16;
+        out.putInt(sfntVersion);
+        out.putShort((short) numTables);
+        out.putShort((short) searchRange);
+        out.putShort((short) entrySelector);
+        out.putShort((short) (numTables * 16 - searchRange));
+
+        int offset = 12 + numTables * 16;
+        int headOffset = -1;
+        for (var entry : sorted.entrySet()) {
+            var table = entry.getValue().duplicate();
+            int length = table.remaining();
+            if (entry.getKey().equals(HEAD)) {
+                headOffset = offset;
+            }
+            int record = out.position();
+            for (int i = 0; i < 4; i++) {
+                out.put((byte) entry.getKey().charAt(i));
+            }
+            out.putInt(0);
+            out.putInt(offset);
+            out.putInt(length);
+            out.duplicate().position(offset).put(table);
+            if (entry.getKey().equals(HEAD) && length > HEAD_CHECKSUM_ADJUSTMENT + 4) {
+                out.putInt(offset + HEAD_CHECKSUM_ADJUSTMENT, 0);
+            }
+            out.putInt(record + 4, checksum(out, offset, length));
+            offset += pad4(length);
+        }
+        if (headOffset >= 0) {
+            out.putInt(headOffset + HEAD_CHECKSUM_ADJUSTMENT, CHECKSUM_MAGIC - checksum(out, 0, size));
+        }
+        return out.array();
+    }
+
+    /**
+     * @return writable copy of the table
+     */
+    static ByteBuffer copy(ByteBuffer table) {
+        var copy = ByteBuffer.allocate(table.remaining());
+        copy.put(table.duplicate());
+        return copy.flip();
+    }
+
+    private static void putOffset(ByteBuffer loca, int offset, boolean longLoca) {
+        if (longLoca) {
+            loca.putInt(offset);
+        } else {
+            loca.putShort((short) (offset / 2));
+        }
+    }
+
+    private static int checksum(ByteBuffer data, int offset, int length) {
+        int sum = 0;
+        int end = offset + pad4(length);
+        for (int i = offset; i < end; i += 4) {
+            sum += data.getInt(i);
+        }
+        return sum;
+    }
+
+    private static int pad2(int length) {
+        return (length + 1) & ~1;
+    }
+
+    private static int pad4(int length) {
+        return (length + 3) & ~3;
+    }
+}
@@ -0,0 +1,178 @@
+package com.github.alexsc.pdf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Subsets a TrueType program working directly on its tables, without parsing it as a font.
+ * <p>
+ * Outlines of unused glyphs are dropped from {@code glyf} and {@code loca}, glyph ids stay the same, so the
+ * encoding, widths and CIDToGIDMap of the PDF font stay valid. Composite glyphs keep their components.
+ * Besides the table directory only {@code loca}, {@code glyf}, {@code hmtx} and {@code post} are read:
+ * metrics of unused glyphs are zeroed, since the PDF has its own widths, and their names are dropped. Tables
+ * not needed in a PDF are dropped, the others are copied as they are. For CID fonts, glyphs after the last
+ * used one are cut off, which also shortens {@code hmtx}.
+ */
+public final class TrueTypeGlyphSubset {
+    private static final int HHEA_NUMBER_OF_HMETRICS = 34;
+    // Glyph names predefined by the post table, custom names have higher indexes
+    private static final int STANDARD_GLYPH_NAMES = 258;
+
+    private final ByteBuffer program;
+    private final GlyphSet glyphs;
+    private final boolean cidFont;
+
+    /**
+     * @param program font program, not modified
+     * @param glyphs  glyph ids to keep, .notdef is always kept
+     * @param cidFont whether the program is used by a CIDFontType2, which needs no cmap, post and name
+     */
+    public TrueTypeGlyphSubset(ByteBuffer program, GlyphSet glyphs, boolean cidFont) {
+        this.program = program;
+        this.glyphs = glyphs;
+        this.cidFont = cidFont;
+    }
+
+    public byte[] process() throws IOException {
+        var font = SfntFont.parse(program);
+        var kept = SfntFont.closeComposites(glyphs, font.getNumGlyphs(), font::getGlyph);
+        var keptGlyphs = kept.toArray();
+
+        Map<String, ByteBuffer> tables = new TreeMap<>(font.getTables());
+        SfntFont.retainPdfTables(tables, cidFont);
+        int numGlyphs = font.getNumGlyphs();
+        // Vertical metrics would have to be cut as well
+        if (cidFont && !tables.containsKey("vmtx") && tables.containsKey("hhea") && tables.containsKey("hmtx")) {
+            numGlyphs = keptGlyphs[keptGlyphs.length - 1] + 1;
+            truncateGlyphs(tables, numGlyphs);
+        }
+
+        clearMetrics(tables, kept, numGlyphs);
+        if (tables.containsKey("post")) {
+            tables.put("post", subsetGlyphNames(tables.get("post"), kept));
+        }
+
+        var outlines = new ByteBuffer[numGlyphs];
+        var empty = ByteBuffer.allocate(0);
+        for (int gid = 0; gid < numGlyphs; gid++) {
+            outlines[gid] = empty;
+        }
+        for (int gid : keptGlyphs) {
+            outlines[gid] = font.getGlyph(gid);
+        }
+        SfntFont.setGlyphs(tables, outlines);
+        return SfntFont.write(font.getSfntVersion(), tables);
+    }
+
+    /**
+     * Zeroes the metrics of unused glyphs, which the PDF takes from its own widths, so they compress well.
+     */
+    private static void clearMetrics(Map<String, ByteBuffer> tables, GlyphSet kept, int numGlyphs) {
+        var hhea = tables.get("hhea");
+        var hmtx = tables.get("hmtx");
+        if (hhea == null || hmtx == null) {
+            return;
+        }
+        int numberOfHMetrics = Math.min(hhea.getShort(HHEA_NUMBER_OF_HMETRICS) & 0xFFFF, numGlyphs);
+        var cleared = SfntFont.copy(hmtx);
+        for (int gid = 1; gid < numGlyphs; gid++) {
+            if (kept.contains(gid)) {
+                continue;
+            }
+            if (gid < numberOfHMetrics) {
+                if (gid * 4 + 4 <= cleared.limit()) {
+                    cleared.putInt(gid * 4, 0);
+                }
+            } else {
+                int offset = numberOfHMetrics * 4 + (gid - numberOfHMetrics) * 2;
+                if (offset + 2 <= cleared.limit()) {
+                    cleared.putShort(offset, (short) 0);
+                }
+            }
+        }
+        // The last full metric also gives the advance of all following glyphs
+        if (numberOfHMetrics > 0 && numberOfHMetrics < numGlyphs && !kept.contains(numberOfHMetrics - 1)) {
+            cleared.putShort((numberOfHMetrics - 1) * 4, hmtx.getShort(hmtx.position() + (numberOfHMetrics - 1) * 4));
+        }
+        tables.put("hmtx", cleared);
+    }
+
+    /**
+     * Keeps the names of the kept glyphs in a version 2 post table, other glyphs are named .notdef.
+     */
+    private static ByteBuffer subsetGlyphNames(ByteBuffer post, GlyphSet kept) throws IOException {
+        if (post.remaining() < 34 || post.getInt(post.position()) != 0x00020000) {
+            return post;
+        }
+        try {
+            int numGlyphs = post.getShort(post.position() + 32) & 0xFFFF;
+            int namesStart = post.position() + 34 + numGlyphs * 2;
+            // Offsets of the custom names, which follow the glyph name indexes
+            List<Integer> nameOffsets = new ArrayList<>();
+            for (int offset = namesStart; offset < post.limit(); offset += 1 + (post.get(offset) & 0xFF)) {
+                nameOffsets.add(offset);
+            }
+
+            var indexes = new int[numGlyphs];
+            var names = new ByteArrayOutputStream();
+            Map<Integer, Integer> newIndexes = new HashMap<>();
+            for (int gid = 0; gid < numGlyphs; gid++) {
+                int index = post.getShort(post.position() + 34 + gid * 2) & 0xFFFF;
+                if (index < STANDARD_GLYPH_NAMES) {
+                    indexes[gid] = index;
+                } else if (kept.contains(gid) && index - STANDARD_GLYPH_NAMES < nameOffsets.size()) {
+                    Integer newIndex = newIndexes.get(index);
+                    if (newIndex == null) {
+                        newIndex = STANDARD_GLYPH_NAMES + newIndexes.size();
+                        newIndexes.put(index, newIndex);
+                        int offset = nameOffsets.get(index - STANDARD_GLYPH_NAMES);
+                        var name = new byte[1 + (post.get(offset) & 0xFF)];
+                        post.duplicate().position(offset).get(name);
+                        names.write(name, 0, name.length);
+                    }
+                    indexes[gid] = newIndex;
+                }
+            }
+
+            var subset = ByteBuffer.allocate(34 + numGlyphs * 2 + names.size());
+            subset.put(post.duplicate().limit(post.position() + 34));
+            for (int index : indexes) {
+                subset.putShort((short) index);
+            }
+            subset.put(names.toByteArray());
+            return subset.flip();
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Invalid post table", e);
+        }
+    }
+
+    private static void truncateGlyphs(Map<String, ByteBuffer> tables, int numGlyphs) throws IOException {
+        var maxp = SfntFont.copy(tables.get(SfntFont.MAXP));
+        maxp.putShort(4, (short) numGlyphs);
+        tables.put(SfntFont.MAXP, maxp);
+
+        var hhea = SfntFont.copy(tables.get("hhea"));
+        int numberOfHMetrics = hhea.getShort(HHEA_NUMBER_OF_HMETRICS) & 0xFFFF;
+        int hmtxLength;
+        if (numberOfHMetrics > numGlyphs) {
+            numberOfHMetrics = numGlyphs;
+            hmtxLength = numGlyphs * 4;
+        } else {
+            // Glyphs after the last full metric only have a left side bearing
+            hmtxLength = numberOfHMetrics * 4 + (numGlyphs - numberOfHMetrics) * 2;
+        }
+        var hmtx = tables.get("hmtx");
+        if (hmtx.remaining() < hmtxLength) {
+            throw new IOException("Truncated hmtx table");
+        }
+        hhea.putShort(HHEA_NUMBER_OF_HMETRICS, (short) numberOfHMetrics);
+        tables.put("hhea", hhea);
+        tables.put("hmtx", hmtx.duplicate().limit(hmtx.position() + hmtxLength).slice());
+    }
+}
@@ -0,0 +1,148 @@
+package com.github.alexsc.pdf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Combines subsets of the same TrueType face into one program, e.g. {@code ABCDEF+ArialMT} and
+ * {@code GHIJKL+ArialMT} embedded by different producers.
+ * <p>
+ * Only subsets that kept the glyph ids of the original font can be combined: all tables other than the
+ * outlines must be equal, and a glyph present in several subsets must have the same outline in each. Fonts
+ * referring to any of the subsets can then use the combined program without remapping their codes.
+ */
+public final class TrueTypeSubsetMerger {
+    // Tables which may differ between subsets of the same font
+    private static final Set<String> MERGED_TABLES = Set.of(SfntFont.HEAD, SfntFont.MAXP, SfntFont.LOCA, SfntFont.GLYF, "name");
+    // head fields a subsetter may change: checkSumAdjustment, modified, indexToLocFormat
+    private static final int[][] HEAD_VOLATILE_RANGES = {{8, 12}, {28, 36}, {50, 52}};
+
+    private final List<SfntFont> fonts = new ArrayList<>();
+    private String incompatibility;
+
+    public TrueTypeSubsetMerger(List<byte[]> programs) throws IOException {
+        for (var program : programs) {
+            fonts.add(SfntFont.parse(program));
+        }
+        var first = fonts.get(0);
+        for (var other : fonts.subList(1, fonts.size())) {
+            incompatibility = getIncompatibility(first, other);
+            if (incompatibility != null) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return why the programs cannot be combined, or null if their tables allow it
+     */
+    public String getIncompatibility() {
+        return incompatibility;
+    }
+
+    /**
+     * Tables not needed to draw glyphs in a PDF, such as layout tables and kerning, are dropped.
+     *
+     * @param glyphs   glyph ids to keep, with the components of composite glyphs; .notdef is always kept
+     * @param cidFont  whether the program is used by a CIDFontType2 only, which needs no cmap, post and name
+     * @return program with the outlines of the glyphs, taken from whichever subset has them
+     * @throws IOException if the subsets have different outlines for a kept glyph
+     */
+    public byte[] merge(GlyphSet glyphs, boolean cidFont) throws IOException {
+        if (incompatibility != null) {
+            throw new IllegalStateException("Font subsets are not compatible: " + incompatibility);
+        }
+        var first = fonts.get(0);
+        var outlines = new ByteBuffer[first.getNumGlyphs()];
+        var empty = ByteBuffer.allocate(0);
+        for (int gid = 0; gid < outlines.length; gid++) {
+            outlines[gid] = empty;
+        }
+
+        var kept = SfntFont.closeComposites(glyphs, outlines.length, this::getOutline);
+        for (int gid : kept.toArray()) {
+            outlines[gid] = getOutline(gid);
+        }
+
+        var maxp = SfntFont.copy(first.getTable(SfntFont.MAXP));
+        for (var other : fonts.subList(1, fonts.size())) {
+            maxMaxp(maxp, other.getTable(SfntFont.MAXP));
+        }
+        Map<String, ByteBuffer> tables = new TreeMap<>(first.getTables());
+        SfntFont.retainPdfTables(tables, cidFont);
+        tables.put(SfntFont.MAXP, maxp);
+        SfntFont.setGlyphs(tables, outlines);
+        return SfntFont.write(first.getSfntVersion(), tables);
+    }
+
+    private ByteBuffer getOutline(int gid) throws IOException {
+        ByteBuffer outline = null;
+        for (var font : fonts) {
+            var glyph = font.getGlyph(gid);
+            if (!glyph.hasRemaining()) {
+                continue;
+            }
+            if (outline == null) {
+                outline = glyph;
+            } else if (!outline.equals(glyph)) {
+                throw new IOException("Glyph " + gid + " differs between font subsets");
+            }
+        }
+        return outline != null ? outline : ByteBuffer.allocate(0);
+    }
+
+    private static String getIncompatibility(SfntFont a, SfntFont b) {
+        if (a.getSfntVersion() != b.getSfntVersion()) {
+            return "different sfnt versions";
+        }
+        if (a.getNumGlyphs() != b.getNumGlyphs()) {
+            return "glyph counts " + a.getNumGlyphs() + " and " + b.getNumGlyphs();
+        }
+        if (!a.getTables().keySet().equals(b.getTables().keySet())) {
+            return "tables " + a.getTables().keySet() + " and " + b.getTables().keySet();
+        }
+        for (var tag : a.getTables().keySet()) {
+            if (!MERGED_TABLES.contains(tag) && !a.getTable(tag).equals(b.getTable(tag))) {
+                return "table " + tag + " differs";
+            }
+        }
+        if (!equalHead(a.getTable(SfntFont.HEAD), b.getTable(SfntFont.HEAD))) {
+            return "table head differs";
+        }
+        var maxpA = a.getTable(SfntFont.MAXP);
+        var maxpB = b.getTable(SfntFont.MAXP);
+        if (maxpA.getInt(0) != maxpB.getInt(0) || maxpA.remaining() != maxpB.remaining()) {
+            return "different maxp versions";
+        }
+        return null;
+    }
+
+    private static boolean equalHead(ByteBuffer a, ByteBuffer b) {
+        if (a.remaining() != b.remaining()) {
+            return false;
+        }
+        int start = 0;
+        for (var range : HEAD_VOLATILE_RANGES) {
+            if (!a.duplicate().position(start).limit(range[0]).equals(b.duplicate().position(start).limit(range[0]))) {
+                return false;
+            }
+            start = range[1];
+        }
+        return a.duplicate().position(start).equals(b.duplicate().position(start));
+    }
+
+    /**
+     * Raises the profile maxima of version 1.0 maxp tables to cover the outlines of both programs.
+     */
+    private static void maxMaxp(ByteBuffer target, ByteBuffer other) {
+        for (int offset = 6; offset + 2 <= target.limit(); offset += 2) {
+            int value = Math.max(target.getShort(offset) & 0xFFFF, other.getShort(offset) & 0xFFFF);
+            target.putShort(offset, (short) value);
+        }
+    }
+}
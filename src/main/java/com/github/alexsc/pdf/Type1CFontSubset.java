@@ -0,0 +1,574 @@
+package com.github.alexsc.pdf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Subsets a bare (non-CID) CFF font as embedded in FontFile3 streams of subtype Type1C.
+ * <p>
+ * Glyph ids, charset and encoding are kept, so the font still maps glyph names the way the PDF expects.
+ * Charstrings of unused glyphs are replaced by {@code endchar} and subroutines no longer called by the
+ * remaining glyphs by {@code return}. Accented glyphs built with the seac form of {@code endchar} pull in
+ * their base and accent glyphs.
+ */
+public final class Type1CFontSubset {
+    private static final int OP_CHARSET = 15;
+    private static final int OP_ENCODING = 16;
+    private static final int OP_CHAR_STRINGS = 17;
+    private static final int OP_PRIVATE = 18;
+    private static final int OP_SUBRS = 19;
+    private static final int OP_CHARSTRING_TYPE = 12 << 8 | 6;
+    private static final int OP_ROS = 12 << 8 | 30;
+
+    private static final byte[] ENDCHAR = {14};
+    private static final byte[] RETURN = {11};
+    private static final int MAX_SUBR_DEPTH = 10;
+    private static final int MAX_STACK = 48;
+
+    private final byte[] cff;
+    private final GlyphSet glyphs;
+    private final int[] standardCodeToGid;
+
+    private Index charStrings;
+    private Index globalSubrs;
+    private Index localSubrs;
+    private BitSet usedGlobalSubrs;
+    private BitSet usedLocalSubrs;
+
+    /**
+     * @param cff               font program
+     * @param glyphs            glyph ids to keep, .notdef is always kept
+     * @param standardCodeToGid glyph id for each StandardEncoding code, 0 if missing; used to resolve seac
+     */
+    public Type1CFontSubset(byte[] cff, GlyphSet glyphs, int[] standardCodeToGid) {
+        this.cff = cff;
+        this.glyphs = glyphs;
+        this.standardCodeToGid = standardCodeToGid;
+    }
+
+    /**
+     * @throws UnsupportedFontProgramException if a used charstring calls subroutines in ways that cannot be
+     *                                         followed, the whole program has to be kept then
+     */
+    public byte[] process() throws IOException {
+        int hdrSize = u8(2);
+        var names = readIndex(hdrSize);
+        if (names.count != 1) {
+            throw new IOException("Expected a single font in CFF, found " + names.count);
+        }
+        var topDicts = readIndex(names.end);
+        var strings = readIndex(topDicts.end);
+        globalSubrs = readIndex(strings.end);
+
+        var topDict = parseDict(topDicts.start(0), topDicts.end(0));
+        if (topDict.find(OP_ROS) != null) {
+            throw new IOException("CID-keyed CFF in Type1C font program");
+        }
+        var charstringType = topDict.find(OP_CHARSTRING_TYPE);
+        if (charstringType != null && charstringType.operands[0] != 2) {
+            throw new IOException("Unsupported charstring type " + charstringType.operands[0]);
+        }
+        var charStringsEntry = topDict.find(OP_CHAR_STRINGS);
+        var privateEntry = topDict.find(OP_PRIVATE);
+        if (charStringsEntry == null || privateEntry == null) {
+            throw new IOException("CFF without CharStrings or Private DICT");
+        }
+        charStrings = readIndex(charStringsEntry.operands[0]);
+        int glyphCount = charStrings.count;
+
+        int privateStart = privateEntry.operands[1];
+        var privateDict = parseDict(privateStart, privateStart + privateEntry.operands[0]);
+        var subrsEntry = privateDict.find(OP_SUBRS);
+        localSubrs = subrsEntry != null ? readIndex(privateStart + subrsEntry.operands[0]) : null;
+
+        var charsetEntry = topDict.find(OP_CHARSET);
+        int charsetOffset = charsetEntry != null ? charsetEntry.operands[0] : 0;
+        var encodingEntry = topDict.find(OP_ENCODING);
+        int encodingOffset = encodingEntry != null ? encodingEntry.operands[0] : 0;
+
+        var keptGlyphs = new BitSet(glyphCount);
+        collectGlyphs(keptGlyphs);
+
+        // Offsets in the Top DICT are written as 5-byte integers, so its size does not depend on the layout
+        var out = new ByteArrayOutputStream(cff.length);
+        out.write(cff, 0, names.end);
+        int topDictSize = topDict.encode(new int[0]).length;
+        int pos = names.end + indexSize(1, topDictSize) + (globalSubrs.offset - strings.offset);
+
+        var newGlobalSubrs = writeSubrs(globalSubrs, usedGlobalSubrs);
+        pos += newGlobalSubrs.length;
+        int newCharsetOffset = charsetOffset;
+        if (charsetOffset > 2) {
+            newCharsetOffset = pos;
+            pos += charsetSize(charsetOffset, glyphCount);
+        }
+        int newEncodingOffset = encodingOffset;
+        if (encodingOffset > 1) {
+            newEncodingOffset = pos;
+            pos += encodingSize(encodingOffset);
+        }
+
+        var newCharStrings = new ArrayList<byte[]>(glyphCount);
+        for (int gid = 0; gid < glyphCount; gid++) {
+            newCharStrings.add(keptGlyphs.get(gid) ? charStrings.get(gid) : ENDCHAR);
+        }
+        var charStringsBytes = writeIndex(newCharStrings);
+        int newCharStringsOffset = pos;
+        pos += charStringsBytes.length;
+
+        int newPrivateOffset = pos;
+        byte[] privateBytes;
+        byte[] localSubrsBytes = new byte[0];
+        if (subrsEntry != null) {
+            int privateSize = privateDict.encode(new int[]{0}).length;
+            privateBytes = privateDict.encode(new int[]{privateSize});
+            localSubrsBytes = writeSubrs(localSubrs, usedLocalSubrs);
+        } else {
+            privateBytes = privateDict.encode(new int[0]);
+        }
+
+        var topDictBytes = topDict.encode(new int[]{newCharsetOffset, newEncodingOffset, newCharStringsOffset,
+                privateBytes.length, newPrivateOffset});
+        out.write(writeIndex(List.of(topDictBytes)));
+        out.write(cff, strings.offset, globalSubrs.offset - strings.offset);
+        out.write(newGlobalSubrs);
+        if (charsetOffset > 2) {
+            out.write(cff, charsetOffset, charsetSize(charsetOffset, glyphCount));
+        }
+        if (encodingOffset > 1) {
+            out.write(cff, encodingOffset, encodingSize(encodingOffset));
+        }
+        out.write(charStringsBytes);
+        out.write(privateBytes);
+        out.write(localSubrsBytes);
+        return out.toByteArray();
+    }
+
+    /**
+     * Marks used glyphs, the glyphs their seac calls refer to and the subroutines they call.
+     *
+     * @throws UnsupportedFontProgramException if a charstring uses operators that make subroutine calls unpredictable
+     */
+    private void collectGlyphs(BitSet keptGlyphs) throws UnsupportedFontProgramException {
+        usedGlobalSubrs = new BitSet(globalSubrs.count);
+        usedLocalSubrs = new BitSet(localSubrs != null ? localSubrs.count : 0);
+        var pending = new ArrayDeque<Integer>();
+        pending.add(0);
+        glyphs.forEach(gid -> {
+            if (gid < charStrings.count) {
+                pending.add(gid);
+            }
+        });
+        var interpreter = new CharStringScanner();
+        while (!pending.isEmpty()) {
+            int gid = pending.poll();
+            if (keptGlyphs.get(gid)) {
+                continue;
+            }
+            keptGlyphs.set(gid);
+            interpreter.reset();
+            interpreter.scan(charStrings.start(gid), charStrings.end(gid), 0);
+            if (interpreter.unsupported) {
+                throw new UnsupportedFontProgramException("unsupported charstring operators in glyph " + gid);
+            }
+            if (interpreter.seacBase >= 0) {
+                for (int code : new int[]{interpreter.seacBase, interpreter.seacAccent}) {
+                    if (code >= 0 && code < standardCodeToGid.length && standardCodeToGid[code] > 0) {
+                        pending.add(standardCodeToGid[code]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks a Type 2 charstring for the operands of subroutine calls, hint masks and seac.
+     */
+    private final class CharStringScanner {
+        private final int[] stack = new int[MAX_STACK];
+        private int sp;
+        private int stems;
+        private int seacBase;
+        private int seacAccent;
+        private boolean unsupported;
+
+        void reset() {
+            sp = 0;
+            stems = 0;
+            seacBase = -1;
+            seacAccent = -1;
+        }
+
+        /**
+         * @return true if the glyph ended
+         */
+        boolean scan(int start, int end, int depth) {
+            int i = start;
+            while (i < end && !unsupported) {
+                int b0 = u8(i);
+                if (b0 == 28 || b0 >= 32) {
+                    int value;
+                    if (b0 == 28) {
+                        value = (short) (u8(i + 1) << 8 | u8(i + 2));
+                        i += 3;
+                    } else if (b0 <= 246) {
+                        value = b0 - 139;
+                        i++;
+                    } else if (b0 <= 250) {
+                        value = (b0 - 247) * 256 + u8(i + 1) + 108;
+                        i += 2;
+                    } else if (b0 <= 254) {
+                        value = -(b0 - 251) * 256 - u8(i + 1) - 108;
+                        i += 2;
+                    } else {
+                        // 16.16 fixed, only the integer part matters here
+                        value = (u8(i + 1) << 24 | u8(i + 2) << 16 | u8(i + 3) << 8 | u8(i + 4)) >> 16;
+                        i += 5;
+                    }
+                    if (sp == MAX_STACK) {
+                        unsupported = true;
+                        return true;
+                    }
+                    stack[sp++] = value;
+                    continue;
+                }
+                i++;
+                switch (b0) {
+                    case 1: // hstem
+                    case 3: // vstem
+                    case 18: // hstemhm
+                    case 23: // vstemhm
+                        stems += sp / 2;
+                        sp = 0;
+                        break;
+                    case 19: // hintmask
+                    case 20: // cntrmask
+                        stems += sp / 2;
+                        sp = 0;
+                        i += (stems + 7) / 8;
+                        break;
+                    case 10: // callsubr
+                    case 29: // callgsubr
+                        var subrs = b0 == 10 ? localSubrs : globalSubrs;
+                        if (sp == 0 || subrs == null || depth >= MAX_SUBR_DEPTH) {
+                            unsupported = true;
+                            return true;
+                        }
+                        int index = stack[--sp] + bias(subrs.count);
+                        if (index < 0 || index >= subrs.count) {
+                            unsupported = true;
+                            return true;
+                        }
+                        (b0 == 10 ? usedLocalSubrs : usedGlobalSubrs).set(index);
+                        if (scan(subrs.start(index), subrs.end(index), depth + 1)) {
+                            return true;
+                        }
+                        break;
+                    case 11: // return
+                        return false;
+                    case 14: // endchar
+                        if (sp >= 4) {
+                            seacBase = stack[sp - 2];
+                            seacAccent = stack[sp - 1];
+                        }
+                        return true;
+                    case 12:
+                        int b1 = i < end ? u8(i) : -1;
+                        i++;
+                        // Only flex operators and the deprecated dotsection, arithmetic makes operands unknown
+                        if (b1 != 0 && (b1 < 34 || b1 > 37)) {
+                            unsupported = true;
+                            return true;
+                        }
+                        sp = 0;
+                        break;
+                    default:
+                        sp = 0;
+                        break;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static int bias(int count) {
+        return count < 1240 ? 107 : count < 33900 ? 1131 : 32768;
+    }
+
+    private byte[] writeSubrs(Index subrs, BitSet used) throws IOException {
+        var result = new ArrayList<byte[]>(subrs.count);
+        for (int i = 0; i < subrs.count; i++) {
+            result.add(used.get(i) ? subrs.get(i) : RETURN);
+        }
+        return writeIndex(result);
+    }
+
+    private int charsetSize(int offset, int glyphCount) throws IOException {
+        int format = u8(offset);
+        switch (format) {
+            case 0:
+                return 1 + 2 * (glyphCount - 1);
+            case 1:
+            case 2:
+                int rangeSize = format == 1 ? 3 : 4;
+                int covered = 0;
+                int pos = offset + 1;
+                while (covered < glyphCount - 1) {
+                    int left = format == 1 ? u8(pos + 2) : (u8(pos + 2) << 8 | u8(pos + 3));
+                    covered += left + 1;
+                    pos += rangeSize;
+                }
+                return pos - offset;
+            default:
+                throw new IOException("Unknown charset format " + format);
+        }
+    }
+
+    private int encodingSize(int offset) throws IOException {
+        int format = u8(offset);
+        int size;
+        switch (format & 0x7f) {
+            case 0:
+                size = 2 + u8(offset + 1);
+                break;
+            case 1:
+                size = 2 + 2 * u8(offset + 1);
+                break;
+            default:
+                throw new IOException("Unknown encoding format " + format);
+        }
+        if ((format & 0x80) != 0) {
+            size += 1 + 3 * u8(offset + size);
+        }
+        return size;
+    }
+
+    private int u8(int pos) {
+        return cff[pos] & 0xff;
+    }
+
+    private Index readIndex(int pos) throws IOException {
+        int count = u8(pos) << 8 | u8(pos + 1);
+        if (count == 0) {
+            return new Index(pos, 0, 0, new int[]{1}, pos + 2);
+        }
+        int offSize = u8(pos + 2);
+        if (offSize < 1 || offSize > 4) {
+            throw new IOException("Invalid INDEX offset size " + offSize);
+        }
+        var offsets = new int[count + 1];
+        int p = pos + 3;
+        for (int i = 0; i <= count; i++) {
+            int value = 0;
+            for (int j = 0; j < offSize; j++) {
+                value = value << 8 | u8(p++);
+            }
+            offsets[i] = value;
+        }
+        int dataStart = p - 1;
+        int end = dataStart + offsets[count];
+        if (end > cff.length) {
+            throw new IOException("INDEX at " + pos + " exceeds font program");
+        }
+        return new Index(pos, count, dataStart, offsets, end);
+    }
+
+    private static int indexSize(int count, int dataSize) {
+        return count == 0 ? 2 : 3 + (count + 1) * offSize(dataSize + 1) + dataSize;
+    }
+
+    private static int offSize(int maxOffset) {
+        return maxOffset < 0x100 ? 1 : maxOffset < 0x10000 ? 2 : maxOffset < 0x1000000 ? 3 : 4;
+    }
+
+    private static byte[] writeIndex(List<byte[]> items) throws IOException {
+        int dataSize = 0;
+        for (var item : items) {
+            dataSize += item.length;
+        }
+        var out = new ByteArrayOutputStream(indexSize(items.size(), dataSize));
+        out.write(items.size() >> 8);
+        out.write(items.size());
+        if (items.isEmpty()) {
+            return out.toByteArray();
+        }
+        int offSize = offSize(dataSize + 1);
+        out.write(offSize);
+        int offset = 1;
+        writeOffset(out, offset, offSize);
+        for (var item : items) {
+            offset += item.length;
+            writeOffset(out, offset, offSize);
+        }
+        for (var item : items) {
+            out.write(item);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeOffset(ByteArrayOutputStream out, int value, int size) {
+        for (int shift = (size - 1) * 8; shift >= 0; shift -= 8) {
+            out.write(value >> shift);
+        }
+    }
+
+    private Dict parseDict(int start, int end) throws IOException {
+        var dict = new Dict();
+        int operandStart = start;
+        var operands = new ArrayList<Integer>();
+        int i = start;
+        while (i < end) {
+            int b0 = u8(i);
+            if (b0 <= 21) {
+                int op = b0;
+                i++;
+                if (b0 == 12) {
+                    op = 12 << 8 | u8(i++);
+                }
+                dict.entries.add(new DictEntry(op, operandStart, i - (op > 0xff ? 2 : 1),
+                        operands.stream().mapToInt(Integer::intValue).toArray()));
+                operands.clear();
+                operandStart = i;
+            } else if (b0 == 28) {
+                operands.add((int) (short) (u8(i + 1) << 8 | u8(i + 2)));
+                i += 3;
+            } else if (b0 == 29) {
+                operands.add(u8(i + 1) << 24 | u8(i + 2) << 16 | u8(i + 3) << 8 | u8(i + 4));
+                i += 5;
+            } else if (b0 == 30) {
+                // Real number, value not needed for any offset operator
+                i++;
+                while (i < end && (u8(i) & 0x0f) != 0x0f && (u8(i) & 0xf0) != 0xf0) {
+                    i++;
+                }
+                i++;
+                operands.add(0);
+            } else if (b0 >= 32 && b0 <= 246) {
+                operands.add(b0 - 139);
+                i++;
+            } else if (b0 >= 247 && b0 <= 250) {
+                operands.add((b0 - 247) * 256 + u8(i + 1) + 108);
+                i += 2;
+            } else if (b0 >= 251 && b0 <= 254) {
+                operands.add(-(b0 - 251) * 256 - u8(i + 1) - 108);
+                i += 2;
+            } else {
+                throw new IOException("Invalid DICT byte " + b0 + " at " + i);
+            }
+        }
+        return dict;
+    }
+
+    private final class Index {
+        // Position of the INDEX in the font program
+        final int offset;
+        final int count;
+        // Position before the first data byte, INDEX offsets are 1-based
+        final int dataStart;
+        final int[] offsets;
+        final int end;
+
+        Index(int offset, int count, int dataStart, int[] offsets, int end) {
+            this.offset = offset;
+            this.count = count;
+            this.dataStart = dataStart;
+            this.offsets = offsets;
+            this.end = end;
+        }
+
+        int start(int i) {
+            return dataStart + offsets[i];
+        }
+
+        int end(int i) {
+            return dataStart + offsets[i + 1];
+        }
+
+        byte[] get(int i) {
+            var result = new byte[end(i) - start(i)];
+            System.arraycopy(cff, start(i), result, 0, result.length);
+            return result;
+        }
+    }
+
+    private static final class DictEntry {
+        final int op;
+        final int operandStart;
+        final int operandEnd;
+        final int[] operands;
+
+        DictEntry(int op, int operandStart, int operandEnd, int[] operands) {
+            this.op = op;
+            this.operandStart = operandStart;
+            this.operandEnd = operandEnd;
+            this.operands = operands;
+        }
+
+        boolean isOffset() {
+            return op == OP_CHARSET || op == OP_ENCODING || op == OP_CHAR_STRINGS || op == OP_PRIVATE || op == OP_SUBRS;
+        }
+    }
+
+    private final class Dict {
+        final List<DictEntry> entries = new ArrayList<>();
+
+        DictEntry find(int op) {
+            for (var entry : entries) {
+                if (entry.op == op) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Writes the entries in their original order. Offset operands are replaced by the given values as
+         * 5-byte integers: charset, Encoding, CharStrings, Private size and offset for the Top DICT and Subrs
+         * for a Private DICT. Charset and Encoding keep predefined values. Missing values write zeros.
+         */
+        byte[] encode(int[] offsets) {
+            var out = new ByteArrayOutputStream();
+            for (var entry : entries) {
+                if (entry.isOffset()) {
+                    int[] values;
+                    switch (entry.op) {
+                        case OP_CHARSET:
+                            values = new int[]{value(offsets, 0)};
+                            break;
+                        case OP_ENCODING:
+                            values = new int[]{value(offsets, 1)};
+                            break;
+                        case OP_CHAR_STRINGS:
+                            values = new int[]{value(offsets, 2)};
+                            break;
+                        case OP_PRIVATE:
+                            values = new int[]{value(offsets, 3), value(offsets, 4)};
+                            break;
+                        default:
+                            values = new int[]{value(offsets, 0)};
+                            break;
+                    }
+                    for (int value : values) {
+                        out.write(29);
+                        writeOffset(out, value, 4);
+                    }
+                } else {
+                    out.write(cff, entry.operandStart, entry.operandEnd - entry.operandStart);
+                }
+                if (entry.op > 0xff) {
+                    out.write(12);
+                }
+                out.write(entry.op & 0xff);
+            }
+            return out.toByteArray();
+        }
+
+        private int value(int[] offsets, int i) {
+            return i < offsets.length ? offsets[i] : 0;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.github.alexsc.pdf;
+
+import java.io.IOException;
+
+/**
+ * The font program may well be valid but uses something a subsetter cannot handle, so it has to be kept as it is.
+ */
+public class UnsupportedFontProgramException extends IOException {
+    public UnsupportedFontProgramException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,110 @@
+package com.itextpdf.io.font;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import java.util.regex.Pattern;
+
+/**
+ * Decides which used fonts are worth subsetting and in which order. The default policy subsets every font
+ * without a time limit. Unused fonts are always removed.
+ */
+public class FontSelectionPolicy {
+    // Tag of a subset font, e.g. OYVCFQ+Arial-ItalicMT
+    static final Pattern SUBSET_PREFIX = Pattern.compile("^[A-Z]{6}\\+");
+
+    private int minFontSize = 0;
+    private double minUnusedGlyphRatio = 0;
+    private boolean skipSubsetFonts = false;
+    private long timeBudgetMillis = 0;
+
+    /**
+     * Fonts with a smaller decoded program are kept as they are.
+     */
+    public FontSelectionPolicy setMinFontSize(int minFontSize) {
+        this.minFontSize = minFontSize;
+        return this;
+    }
+
+    public int getMinFontSize() {
+        return minFontSize;
+    }
+
+    /**
+     * Fonts are only subset if at least this share of their glyphs is unused, e.g. 0.5. Fonts with an unknown
+     * glyph count are always subset.
+     */
+    public FontSelectionPolicy setMinUnusedGlyphRatio(double minUnusedGlyphRatio) {
+        this.minUnusedGlyphRatio = minUnusedGlyphRatio;
+        return this;
+    }
+
+    public double getMinUnusedGlyphRatio() {
+        return minUnusedGlyphRatio;
+    }
+
+    /**
+     * Keep fonts whose name has a subset tag, they were subset when the document was created.
+     */
+    public FontSelectionPolicy setSkipSubsetFonts(boolean skipSubsetFonts) {
+        this.skipSubsetFonts = skipSubsetFonts;
+        return this;
+    }
+
+    public boolean isSkipSubsetFonts() {
+        return skipSubsetFonts;
+    }
+
+    /**
+     * Time per document after which no further fonts are subset, 0 for no limit. Fonts are subset in the
+     * order of their estimated savings; subsets still running when the budget is exhausted are discarded.
+     */
+    public FontSelectionPolicy setTimeBudgetMillis(long timeBudgetMillis) {
+        this.timeBudgetMillis = timeBudgetMillis;
+        return this;
+    }
+
+    public long getTimeBudgetMillis() {
+        return timeBudgetMillis;
+    }
+
+    /**
+     * @param size        decoded size of the font program
+     * @param usedCodes   number of codes used with the font
+     * @param totalGlyphs number of glyphs in the font program, -1 if unknown
+     * @return why the font is kept as it is, or null to subset it
+     */
+    public String getSkipReason(PDFont font, int size, int usedCodes, int totalGlyphs) {
+        if (size < minFontSize) {
+            return "font program of " + size + " bytes is below " + minFontSize;
+        }
+        if (skipSubsetFonts && font.getName() != null && SUBSET_PREFIX.matcher(font.getName()).find()) {
+            return "already subset";
+        }
+        if (minUnusedGlyphRatio > 0 && totalGlyphs > 0 && unusedGlyphRatio(usedCodes, totalGlyphs) < minUnusedGlyphRatio) {
+            return usedCodes + " of " + totalGlyphs + " glyphs used";
+        }
+        return null;
+    }
+
+    /**
+     * Savings assuming the program shrinks in proportion to its unused glyphs and unused programs are removed.
+     * Fonts with an unknown glyph count are assumed to stay as they are, so they come last under a time budget.
+     * Also the estimate of {@link PdfFontAnalyzer}.
+     *
+     * @param usedCodes number of codes used with the font, -1 if no content selects it and it is removed; a font
+     *                  selected without showing any code is still subset, down to .notdef
+     */
+    public static long estimateSavings(int size, int usedCodes, int totalGlyphs) {
+        if (usedCodes < 0) {
+            return size;
+        }
+        if (totalGlyphs <= 0) {
+            return 0;
+        }
+        return (long) (size * unusedGlyphRatio(Math.max(usedCodes, 1), totalGlyphs));
+    }
+
+    private static double unusedGlyphRatio(int usedCodes, int totalGlyphs) {
+        return Math.max(0, 1 - (double) usedCodes / totalGlyphs);
+    }
+}
@@ -0,0 +1,219 @@
+package com.itextpdf.io.font;
+
+import com.github.alexsc.pdf.FontDigestCache;
+import com.github.alexsc.pdf.FontFileRegistry;
+import com.github.alexsc.pdf.FontResourceWalker;
+import com.github.alexsc.pdf.PdfFontBatchPatcher;
+import org.apache.pdfbox.pdmodel.font.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Dry run of {@link PdfFontPatcher#optimizeFonts}: finds the embedded fonts and their used glyphs and estimates
+ * the savings without subsetting or saving anything.
+ * <p>
+ * Savings are estimated like the patcher orders fonts under a time budget, see
+ * {@link FontSelectionPolicy#estimateSavings(int, int, int)}.
+ */
+public class PdfFontAnalyzer {
+    private PdfFontAnalyzer() {
+        // Utility class
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: PdfFontAnalyzer [--keep-form-fonts] <input dir or file>...");
+            System.exit(2);
+        }
+
+        var options = new PdfFontPatcherOptions();
+        int i = 0;
+        if (args[i].equals("--keep-form-fonts")) {
+            options.setKeepFormFonts(true);
+            i++;
+        }
+        System.out.println("input,font,type,digest,resources,bytes,used_codes,total_glyphs,estimated_savings");
+        for (var input : PdfFontBatchPatcher.collectInputs(Arrays.asList(args).subList(i, args.length))) {
+            try {
+                var analysis = analyze(input, options);
+                for (var font : analysis.getFonts()) {
+                    System.out.println(csv(input.getPath()) + "," + csv(font.getName()) + "," + font.getType() + "," + font.getDigest()
+                            + "," + font.getResourceCount() + "," + font.getBytes() + "," + font.getUsedCodes()
+                            + "," + font.getTotalGlyphs() + "," + font.getEstimatedSavings());
+                }
+                System.out.println(csv(input.getPath()) + ",*,,," + analysis.getFonts().size() + "," + analysis.getFontBytes()
+                        + ",,," + analysis.getEstimatedSavings());
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to analyze " + input + ": " + e);
+            }
+        }
+    }
+
+    public static DocumentAnalysis analyze(File input, PdfFontPatcherOptions options) throws IOException {
+        try (var doc = PdfFontPatcher.openDocument(input, options)) {
+            // Same fonts and appearances as the patcher scans
+            PdfFontPatcher.prepareFormFonts(doc, options);
+            var fontFiles = new FontFileRegistry(options.getDigestAlgorithm(), doc.isEncrypted() ? FontDigestCache.disabled() : options.getDigestCache());
+            var usedCodes = PdfFontPatcher.collectUsedCodes(memoryUsageSetting -> PdfFontPatcher.openDocument(input, options, memoryUsageSetting), doc, fontFiles, options);
+
+            Map<String, FontAnalysis> fonts = new LinkedHashMap<>();
+            FontResourceWalker.FontVisitor analyzeFont = (page, pageFonts, name, font) -> {
+                var size = fontFiles.getSize(font);
+                if (size == 0) {
+                    return;
+                }
+                var digest = fontFiles.getDigest(font);
+                var analysis = fonts.get(digest);
+                if (analysis == null) {
+                    var used = usedCodes.get(digest);
+                    analysis = new FontAnalysis(font.getName(), PdfFontPatcher.getFontType(font), digest, size,
+                            used != null ? used.size() : -1, getGlyphCount(font));
+                    fonts.put(digest, analysis);
+                }
+                analysis.resourceCount++;
+            };
+            PdfFontPatcher.forEachPageFont(doc, analyzeFont);
+            var acroForm = doc.getDocumentCatalog().getAcroForm();
+            if (acroForm != null && options.isKeepFormFonts()) {
+                PdfFontPatcher.forEachFormFont(acroForm, analyzeFont);
+            }
+            return new DocumentAnalysis(input, doc.getNumberOfPages(), new ArrayList<>(fonts.values()));
+        }
+    }
+
+    /**
+     * @return number of glyphs in the embedded program, or -1 if unknown
+     */
+    static int getGlyphCount(PDFont font) throws IOException {
+        if (font instanceof PDTrueTypeFont) {
+            return ((PDTrueTypeFont) font).getTrueTypeFont().getNumberOfGlyphs();
+        }
+        if (font instanceof PDType1CFont) {
+            return ((PDType1CFont) font).getCFFType1Font().getNumCharStrings();
+        }
+        if (font instanceof PDType0Font) {
+            var descendant = ((PDType0Font) font).getDescendantFont();
+            if (descendant instanceof PDCIDFontType2) {
+                return ((PDCIDFontType2) descendant).getTrueTypeFont().getNumberOfGlyphs();
+            }
+            if (descendant instanceof PDCIDFontType0 && ((PDCIDFontType0) descendant).getCFFFont() != null) {
+                return ((PDCIDFontType0) descendant).getCFFFont().getNumCharStrings();
+            }
+        }
+        return -1;
+    }
+
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    public static final class DocumentAnalysis {
+        private final File input;
+        private final int pageCount;
+        private final List<FontAnalysis> fonts;
+
+        private DocumentAnalysis(File input, int pageCount, List<FontAnalysis> fonts) {
+            this.input = input;
+            this.pageCount = pageCount;
+            this.fonts = fonts;
+        }
+
+        public File getInput() {
+            return input;
+        }
+
+        public int getPageCount() {
+            return pageCount;
+        }
+
+        /**
+         * Distinct embedded font programs.
+         */
+        public List<FontAnalysis> getFonts() {
+            return fonts;
+        }
+
+        public long getFontBytes() {
+            return fonts.stream().mapToLong(FontAnalysis::getBytes).sum();
+        }
+
+        public long getEstimatedSavings() {
+            return fonts.stream().mapToLong(FontAnalysis::getEstimatedSavings).sum();
+        }
+    }
+
+    public static final class FontAnalysis {
+        private final String name;
+        private final String type;
+        private final String digest;
+        private final int bytes;
+        private final int usedCodes;
+        private final int totalGlyphs;
+        private int resourceCount;
+
+        private FontAnalysis(String name, String type, String digest, int bytes, int usedCodes, int totalGlyphs) {
+            this.name = name;
+            this.type = type;
+            this.digest = digest;
+            this.bytes = bytes;
+            this.usedCodes = usedCodes;
+            this.totalGlyphs = totalGlyphs;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        /**
+         * Decoded size of the font program.
+         */
+        public int getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Distinct codes shown with the font, 0 if it is selected but shows nothing, -1 if no content uses it
+         * and the patcher removes it.
+         */
+        public int getUsedCodes() {
+            return usedCodes;
+        }
+
+        /**
+         * Glyphs in the font program, -1 if unknown.
+         */
+        public int getTotalGlyphs() {
+            return totalGlyphs;
+        }
+
+        /**
+         * Page font resources referring to this program.
+         */
+        public int getResourceCount() {
+            return resourceCount;
+        }
+
+        /**
+         * @see FontSelectionPolicy#estimateSavings(int, int, int)
+         */
+        public long getEstimatedSavings() {
+            return FontSelectionPolicy.estimateSavings(bytes, usedCodes, totalGlyphs);
+        }
+    }
+}
@@ -1,28 +1,56 @@
 package com.itextpdf.io.font;
 
-import com.github.alexsc.pdf.CustomPdfRenderer;
-import com.itextpdf.signatures.DigestAlgorithms;
+import com.github.alexsc.pdf.FontDigest;
+import com.github.alexsc.pdf.FontDigestCache;
+import com.github.alexsc.pdf.FontFileRegistry;
+import com.github.alexsc.pdf.FontMetrics;
+import com.github.alexsc.pdf.FontResourceWalker;
+import com.github.alexsc.pdf.FontStreamDeduplicator;
+import com.github.alexsc.pdf.FontSubsetCache;
+import com.github.alexsc.pdf.FormFieldGlyphCollector;
+import com.github.alexsc.pdf.GlyphSet;
+import com.github.alexsc.pdf.GlyphUsage;
+import com.github.alexsc.pdf.GlyphUsageManifest;
+import com.github.alexsc.pdf.GlyphUsageScanner;
+import com.github.alexsc.pdf.OptimizationListener;
+import com.github.alexsc.pdf.PageFingerprinter;
+import com.github.alexsc.pdf.TrueTypeGlyphSubset;
+import com.github.alexsc.pdf.TrueTypeSubsetMerger;
+import com.github.alexsc.pdf.Type1CFontSubset;
+import com.github.alexsc.pdf.UnsupportedFontProgramException;
+import org.apache.fontbox.encoding.StandardEncoding;
 import org.apache.fontbox.ttf.OTFParser;
 import org.apache.fontbox.ttf.OpenTypeFont;
 import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.cos.COSDictionary;
 import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.apache.pdfbox.io.RandomAccessReadMemoryMappedFile;
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.PDResources;
 import org.apache.pdfbox.pdmodel.common.PDStream;
 import org.apache.pdfbox.pdmodel.font.*;
+import org.apache.pdfbox.pdmodel.interactive.form.PDAcroForm;
 import org.apache.pdfbox.pdmodel.interactive.form.PDField;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 import java.io.*;
-import java.math.BigInteger;
-import java.security.GeneralSecurityException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.Security;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Stream;
 
 public class PdfFontPatcher {
+    // Result of a subset task which rewrote the font dictionary itself
+    private static final byte[] IN_PLACE = new byte[0];
+
     static {
         Security.addProvider(new BouncyCastleProvider());
     }
@@ -38,150 +66,746 @@ public class PdfFontPatcher {
     }
 
     public static void optimizeFonts(File input, File output) throws IOException {
-        System.out.println("Processing " + input);
-        PDDocument doc = Loader.loadPDF(input);
-
-        var acroForm = doc.getDocumentCatalog().getAcroForm();
-        if (acroForm != null) {
-            // Remove forms fields' default appearance
-            for (Iterator<PDField> it = acroForm.getFieldIterator(); it.hasNext(); ) {
-                PDField field = it.next();
-                for (var widget : field.getWidgets()) {
-                    widget.getCOSObject().removeItem(COSName.DA);
-                }
-            }
+        optimizeFonts(input, output, new PdfFontPatcherOptions());
+    }
 
-            // Remove form fonts
-            var formResources = acroForm.getDefaultResources();
-            COSDictionary formFonts = formResources.getCOSObject().getCOSDictionary(COSName.FONT);
-            for (var fontName : doc.getDocumentCatalog().getAcroForm().getDefaultResources().getFontNames()) {
-                formFonts.removeItem(fontName);
-            }
-        }
+    public static void optimizeFonts(File input, File output, PdfFontPatcherOptions options) throws IOException {
+        optimizeFonts(input, output, input.length(), memoryUsageSetting -> openDocument(input, options, memoryUsageSetting), doc -> {
+            saveDocument(doc, output, options);
+            return output.length();
+        }, options);
+    }
 
-        // Collect used glyphs on all pages
-        CustomPdfRenderer renderer = new CustomPdfRenderer(doc);
-        var patchedStreamMap = new HashMap<String, PDStream>();
-        for (int i = 0; i < doc.getNumberOfPages(); i++) {
-            renderer.renderImage(i);
-        }
-        var usedCodes = renderer.getUsedCodes();
+    /**
+     * Optimizes a document held in memory, for callers that must not touch the file system.
+     *
+     * @param name identifies the document in logs and {@link OptimizationListener} events
+     */
+    public static void optimizeFonts(String name, byte[] input, OutputStream output, PdfFontPatcherOptions options) throws IOException {
+        var counter = new CountingOutputStream(output);
+        optimizeFonts(new File(name), null, input.length, memoryUsageSetting -> openDocument(input, memoryUsageSetting), doc -> {
+            doc.save(counter, options.getCompressParameters());
+            return counter.count;
+        }, options);
+    }
 
-        // Optimize fonts on all pages
-        Set<String> processedStreams = new HashSet<>();
-        for (int i = 0; i < doc.getNumberOfPages(); i++) {
-            System.out.println("Processing page " + i);
-            var page = doc.getPage(i);
+    /**
+     * Opens the input, again for every copy scanned in parallel.
+     */
+    @FunctionalInterface
+    interface DocumentLoader {
+        PDDocument load(MemoryUsageSetting memoryUsageSetting) throws IOException;
+    }
 
-            PDResources pageResources = page.getResources();
-            COSDictionary pageFonts = pageResources.getCOSObject().getCOSDictionary(COSName.FONT);
-            if (pageFonts == null) {
-                pageFonts = new COSDictionary();
-            }
+    @FunctionalInterface
+    private interface DocumentSaver {
+        /**
+         * @return size of the saved document
+         */
+        long save(PDDocument doc) throws IOException;
+    }
 
-            for (COSName name : pageFonts.keySet()) {
-                PDFont font = pageResources.getFont(name);
+    private static void optimizeFonts(File input, File output, long inputLength, DocumentLoader loader,
+                                      DocumentSaver saver, PdfFontPatcherOptions options) throws IOException {
+        var listener = options.getListener();
+        listener.documentStarted(input);
+        try {
+            long start = System.nanoTime();
+            long outputLength = doOptimizeFonts(input, output, inputLength, loader, saver, options, listener);
+            listener.documentFinished(input, output, inputLength, outputLength, System.nanoTime() - start);
+        } catch (IOException | RuntimeException e) {
+            listener.documentFailed(input, e);
+            throw e;
+        }
+    }
 
-                var streamSize = getFontStreamSize(font);
+    private static long doOptimizeFonts(File input, File output, long inputLength, DocumentLoader loader, DocumentSaver saver,
+                                        PdfFontPatcherOptions options, OptimizationListener listener) throws IOException {
+        System.out.println("Processing " + input);
+        long phaseStart = System.nanoTime();
+        var policy = options.getSelectionPolicy();
+        long deadline = policy.getTimeBudgetMillis() > 0 ? phaseStart + TimeUnit.MILLISECONDS.toNanos(policy.getTimeBudgetMillis()) : Long.MAX_VALUE;
+        try (PDDocument doc = loader.load(options.getMemoryUsageSetting())) {
+            phaseStart = phaseFinished(listener, input, OptimizationListener.Phase.LOAD, phaseStart);
+
+            prepareFormFonts(doc, options);
+            var acroForm = doc.getDocumentCatalog().getAcroForm();
+
+            // Collect used glyphs on all pages
+            // Encrypted documents may have the same encoded data for different content
+            var fontFiles = new FontFileRegistry(options.getDigestAlgorithm(), doc.isEncrypted() ? FontDigestCache.disabled() : options.getDigestCache());
+            var manifestFile = options.isIncremental() && output != null ? Path.of(output.getPath() + ".fonts") : null;
+            var manifest = manifestFile != null ? new GlyphUsageManifest(options.getDigestAlgorithm()) : null;
+            var usedCodes = manifest != null
+                    ? collectUsedCodes(doc, fontFiles, options, readManifest(manifestFile, options), manifest)
+                    : collectUsedCodes(loader, doc, fontFiles, options);
+            var patchedStreamMap = new HashMap<String, PDStream>();
+            var patchedSizes = new HashMap<String, Integer>();
+            phaseStart = phaseFinished(listener, input, OptimizationListener.Phase.SCAN, phaseStart);
+
+            // Find fonts on all pages and prepare subsetting, without changing the document yet
+            List<PageFont> pageFontList = new ArrayList<>();
+            Map<String, FontSubsetCache.Subsetter> subsetters = new LinkedHashMap<>();
+            Map<String, Long> subsetNanos = new ConcurrentHashMap<>();
+            Map<String, String> skipReasons = new HashMap<>();
+            Map<String, Long> estimatedSavings = new HashMap<>();
+            Map<String, List<Object>> codeMappings = new HashMap<>();
+            // Programs rewritten in place by optimizeFont instead of replaced by subset bytes
+            Set<String> inPlaceKeys = new HashSet<>();
+            FontResourceWalker.FontVisitor planFont = (i, pageFonts, name, font) -> {
+                var streamSize = fontFiles.getSize(font);
                 if (streamSize == 0) {
                     // Nothing to optimize
-                    continue;
+                    return;
                 }
 
-                String key = getFontContentDigest(font);
-                if (processedStreams.contains(key)) {
-                    continue;
+                String key = fontFiles.getDigest(font);
+                var metrics = new FontMetrics(i, name.getName(), font.getName(), getFontType(font), key)
+                        .setDigestNanos(fontFiles.getDigestNanos(font))
+                        .setBytes(streamSize, streamSize);
+                pageFontList.add(new PageFont(i, pageFonts, name, font, key, streamSize, metrics));
+                // Used codes are collected per program, they only translate to the same glyphs in the same encoding
+                var codeMapping = codeMappings.putIfAbsent(key, getCodeMapping(font));
+                if (codeMapping != null && !codeMapping.equals(getCodeMapping(font)) && !skipReasons.containsKey(key)) {
+                    subsetters.remove(key);
+                    estimatedSavings.remove(key);
+                    skipReasons.put(key, "program shared by fonts with different encodings");
                 }
                 var used = usedCodes.get(key);
-                if (used != null) {
+                if (used != null && !subsetters.containsKey(key) && !skipReasons.containsKey(key)) {
                     try {
-                        var patchedStream = patchedStreamMap.get(key);
-                        if (patchedStream != null) {
-                            System.out.println("Using cache " + font.getName());
-                            setFontBytes(font, patchedStream);
-                        } else {
-                            System.out.println("Optimizing used font " + font.getName() + " " + used.size() + ": " + name + " " + streamSize + " " + used.size() + ": " + key) ;
-                            var patched = optimizeFont(font, doc, used);
-                            if (patched != null) {
-                                patchedStreamMap.put(key, patched);
+                        int totalGlyphs = policy.getMinUnusedGlyphRatio() > 0 || deadline != Long.MAX_VALUE ? PdfFontAnalyzer.getGlyphCount(font) : -1;
+                        var skipReason = policy.getSkipReason(font, streamSize, used.size(), totalGlyphs);
+                        if (skipReason != null) {
+                            skipReasons.put(key, skipReason);
+                            return;
+                        }
+                        var subsetter = prepareSubset(font, used, fontFiles, options);
+                        if (subsetter == null) {
+                            if (!canOptimizeInPlace(font)) {
+                                skipReasons.put(key, "no subsetter for " + getFontType(font) + " fonts");
+                                return;
                             }
-                            usedCodes.put(getFontContentDigest(font), usedCodes.get(key));
+                            // Changes the document, so it is scheduled like the other subsets but runs on this thread
+                            subsetter = () -> {
+                                optimizeFont(font, doc, used, fontFiles);
+                                return IN_PLACE;
+                            };
+                            inPlaceKeys.add(key);
+                        }
+                        estimatedSavings.put(key, FontSelectionPolicy.estimateSavings(streamSize, used.size(), totalGlyphs));
+                        subsetters.put(key, timed(subsetter, key, subsetNanos));
+                    } catch (IOException | RuntimeException e) {
+                        // Reported when the font is patched
+                        subsetters.put(key, () -> {
+                            throw new IOException(e);
+                        });
+                    }
+                }
+            };
+            forEachPageFont(doc, planFont);
+            if (acroForm != null && options.isKeepFormFonts()) {
+                forEachFormFont(acroForm, planFont);
+            }
+            Map<String, String> mergedKeys = options.isMergeFontSubsets()
+                    ? planMergedSubsets(pageFontList, usedCodes, fontFiles, subsetters, estimatedSavings, subsetNanos, options)
+                    : Map.of();
+            // Skipped or merged after all
+            inPlaceKeys.retainAll(subsetters.keySet());
+            phaseStart = phaseFinished(listener, input, OptimizationListener.Phase.PLAN, phaseStart);
+
+            var ordered = subsetters;
+            if (deadline != Long.MAX_VALUE) {
+                // Largest savings first, the budget may not suffice for all fonts
+                var byPriority = new ArrayList<>(subsetters.entrySet());
+                byPriority.sort(Comparator.comparingLong((Map.Entry<String, FontSubsetCache.Subsetter> e) -> estimatedSavings.getOrDefault(e.getKey(), 0L)).reversed());
+                ordered = new LinkedHashMap<>();
+                for (var entry : byPriority) {
+                    ordered.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            // Subset distinct font programs, in parallel if configured
+            var subsets = computeSubsets(ordered, inPlaceKeys, options.getParallelism(), deadline);
+            subsetters.clear();
+            // First error for each program, the other fonts sharing it fail the same way
+            Map<String, Exception> failures = new HashMap<>();
+            // Programs whose subsetter returned no subset, all their fonts stay unchanged
+            Set<String> unchangedKeys = new HashSet<>();
+
+            // Put the subsets into the document
+            Set<COSDictionary> processedFonts = Collections.newSetFromMap(new IdentityHashMap<>());
+            int currentPage = Integer.MIN_VALUE;
+            for (PageFont pageFont : pageFontList) {
+                if (pageFont.page != currentPage) {
+                    currentPage = pageFont.page;
+                    System.out.println(currentPage >= 0 ? "Processing page " + currentPage : "Processing form fonts");
+                }
+
+                var font = pageFont.font;
+                // Merged subsets share the subset of their group
+                var key = mergedKeys.getOrDefault(pageFont.key, pageFont.key);
+                var metrics = pageFont.metrics;
+                var fontFile = FontFileRegistry.getFontFile(font);
+                var used = usedCodes.get(pageFont.key);
+                if (used == null) {
+                    System.out.println("Removing unused font " + font.getName() + " " + pageFont.name + ": " + pageFont.streamSize + ": " + key);
+                    pageFont.pageFonts.removeItem(pageFont.name);
+                    fontFiles.release(fontFile);
+                    listener.fontProcessed(input, metrics.setStatus(FontMetrics.Status.REMOVED).setBytes(pageFont.streamSize, 0));
+                    continue;
+                }
+                if (!processedFonts.add(font.getCOSObject())) {
+                    // Same font dictionary on another page, already patched
+                    listener.fontProcessed(input, metrics.setStatus(FontMetrics.Status.SHARED)
+                            .setBytes(pageFont.streamSize, patchedSizes.getOrDefault(key, pageFont.streamSize)));
+                    continue;
+                }
+                var skipReason = skipReasons.get(key);
+                if (skipReason != null) {
+                    System.out.println("Keeping font " + font.getName() + " " + pageFont.name + ": " + skipReason);
+                    listener.fontProcessed(input, metrics.setStatus(FontMetrics.Status.SKIPPED));
+                    continue;
+                }
+                var failure = failures.get(key);
+                if (failure != null) {
+                    System.out.println("Keeping font " + font.getName() + " " + pageFont.name + ": subsetting failed");
+                    listener.fontProcessed(input, metrics.setError(failure));
+                    continue;
+                }
 
-                            processedStreams.add(getFontContentDigest(font));
+                try {
+                    var patchedStream = patchedStreamMap.get(key);
+                    if (patchedStream != null) {
+                        System.out.println("Using cache " + font.getName());
+                        setFontBytes(font, patchedStream);
+                        trimFontDictionary(font, doc, used);
+                        metrics.setStatus(FontMetrics.Status.CACHED).setBytes(pageFont.streamSize, patchedSizes.get(key));
+                    } else {
+                        System.out.println("Optimizing used font " + font.getName() + " " + used.size() + ": " + pageFont.name + " " + pageFont.streamSize + " " + used.size() + ": " + key) ;
+                        PDStream patched = null;
+                        int patchedSize;
+                        // Removed once applied, so the original and subset bytes can be collected
+                        var subset = subsets.remove(key);
+                        var subsetBytes = subset != null ? awaitSubset(subset, deadline) : null;
+                        if (subsetBytes == null && (subset != null || !inPlaceKeys.contains(key) || System.nanoTime() >= deadline)) {
+                            if (deadline != Long.MAX_VALUE && System.nanoTime() >= deadline && !unchangedKeys.contains(key)) {
+                                System.out.println("Time budget exhausted, keeping font " + font.getName());
+                                skipReasons.put(key, "time budget exhausted");
+                                listener.fontProcessed(input, metrics.setStatus(FontMetrics.Status.SKIPPED));
+                            } else {
+                                // The subsetter had nothing to remove
+                                System.out.println("No subset, keeping font " + font.getName());
+                                unchangedKeys.add(key);
+                                listener.fontProcessed(input, metrics);
+                            }
+                            continue;
+                        } else if (subsetBytes != null && subsetBytes != IN_PLACE) {
+                            patched = setFontBytes(font, doc, subsetBytes);
+                            trimFontDictionary(font, doc, used);
+                            patchedSize = subsetBytes.length;
+                            metrics.setSubsetNanos(subsetNanos.getOrDefault(key, 0L));
+                        } else {
+                            if (subsetBytes == IN_PLACE) {
+                                metrics.setSubsetNanos(subsetNanos.getOrDefault(key, 0L));
+                            } else {
+                                // Another font dictionary of a program whose first dictionary was rewritten
+                                long subsetStart = System.nanoTime();
+                                optimizeFont(font, doc, used, fontFiles);
+                                metrics.setSubsetNanos(System.nanoTime() - subsetStart);
+                            }
+                            var currentFontFile = FontFileRegistry.getCurrentFontFile(font);
+                            patchedSize = currentFontFile != fontFile ? fontFiles.getSize(currentFontFile) : pageFont.streamSize;
+                        }
+                        if (patched != null) {
+                            patchedStreamMap.put(key, patched);
+                        }
+                        patchedSizes.put(key, patchedSize);
+                        if (patched != null || FontFileRegistry.getCurrentFontFile(font) != fontFile) {
+                            metrics.setStatus(FontMetrics.Status.SUBSET);
                         }
-                    } catch (Exception e) {
-                        // Ignore
+                        metrics.setBytes(pageFont.streamSize, patchedSize);
+                    }
+                    if (mergedKeys.containsKey(pageFont.key) && metrics.getStatus() != FontMetrics.Status.UNCHANGED) {
+                        metrics.setStatus(FontMetrics.Status.MERGED);
+                    }
+                } catch (Exception e) {
+                    var unsupported = getUnsupportedProgram(e);
+                    if (unsupported != null) {
+                        // Valid program the subsetter cannot handle, the other fonts sharing it are skipped as well
+                        System.out.println("Keeping font " + font.getName() + " " + pageFont.name + ": " + unsupported.getMessage());
+                        skipReasons.put(key, unsupported.getMessage());
+                        metrics.setStatus(FontMetrics.Status.SKIPPED);
+                    } else {
                         e.printStackTrace();
+                        metrics.setError(e);
+                        failures.put(key, e);
                     }
-                } else {
-                    System.out.println("Removing unused font " + font.getName() + " " + name + ": " + getFontStreamSize(font) + ": " + key);
-                    pageFonts.removeItem(name);
+                } finally {
+                    fontFiles.release(fontFile);
+                }
+                listener.fontProcessed(input, metrics);
+            }
+            phaseStart = phaseFinished(listener, input, OptimizationListener.Phase.SUBSET, phaseStart);
+
+            if (options.isDeduplicateStreams()) {
+                int replaced = FontStreamDeduplicator.deduplicate(doc);
+                if (replaced > 0) {
+                    System.out.println("Shared " + replaced + " duplicate font streams");
+                }
+            }
+            doc.setAllSecurityToBeRemoved(true);
+            long outputLength = saver.save(doc);
+            if (manifest != null) {
+                manifest.write(manifestFile);
+            }
+            phaseFinished(listener, input, OptimizationListener.Phase.SAVE, phaseStart);
+
+            System.out.println("Optimized file " + input.getName()  + " from " + inputLength + " to " + outputLength);
+            return outputLength;
+        }
+    }
+
+    /**
+     * Groups the used TrueType fonts by face and replaces the subsetters of each group with compatible programs
+     * by one subsetter of the combined program.
+     *
+     * @return key of the combined subset for each merged font key
+     */
+    private static Map<String, String> planMergedSubsets(List<PageFont> pageFonts, Map<String, GlyphSet> usedCodes, FontFileRegistry fontFiles,
+                                                         Map<String, FontSubsetCache.Subsetter> subsetters, Map<String, Long> estimatedSavings,
+                                                         Map<String, Long> subsetNanos, PdfFontPatcherOptions options) throws IOException {
+        // Distinct programs of each face, with one font using each program
+        Map<String, Map<String, PDFont>> faces = new LinkedHashMap<>();
+        for (var pageFont : pageFonts) {
+            var font = pageFont.font;
+            if (subsetters.containsKey(pageFont.key) && isTrueTypeProgram(font) && font.getName() != null) {
+                var face = getFontType(font) + " " + FontSelectionPolicy.SUBSET_PREFIX.matcher(font.getName()).replaceFirst("");
+                faces.computeIfAbsent(face, f -> new LinkedHashMap<>()).putIfAbsent(pageFont.key, font);
+            }
+        }
+
+        Map<String, String> mergedKeys = new HashMap<>();
+        for (var face : faces.entrySet()) {
+            var fonts = face.getValue();
+            if (fonts.size() < 2) {
+                continue;
+            }
+            List<byte[]> programs = new ArrayList<>();
+            var usedGlyphs = GlyphSet.dense();
+            long savings = 0;
+            TrueTypeSubsetMerger merger;
+            try {
+                for (var entry : fonts.entrySet()) {
+                    programs.add(fontFiles.getBytes(entry.getValue()));
+                    addUsedGlyphs(entry.getValue(), usedCodes.get(entry.getKey()), usedGlyphs);
+                    savings += estimatedSavings.getOrDefault(entry.getKey(), 0L);
                 }
+                merger = new TrueTypeSubsetMerger(programs);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Not merging subsets of " + face.getKey() + ": " + e);
+                continue;
+            }
+            if (merger.getIncompatibility() != null) {
+                System.out.println("Not merging subsets of " + face.getKey() + ": " + merger.getIncompatibility());
+                continue;
+            }
+
+            var keys = new TreeSet<>(fonts.keySet());
+            var groupKey = FontDigest.of(options.getDigestAlgorithm(), String.join(",", keys).getBytes(StandardCharsets.US_ASCII)).getKey();
+            System.out.println("Merging " + fonts.size() + " subsets of " + face.getKey() + " with " + usedGlyphs.size() + " used glyphs");
+            for (var key : keys) {
+                subsetters.remove(key);
+                estimatedSavings.remove(key);
+                mergedKeys.put(key, groupKey);
             }
+            boolean cidFont = fonts.values().iterator().next() instanceof PDType0Font;
+            int size = programs.stream().mapToInt(program -> program.length).sum();
+            var cache = options.getSubsetCache();
+            subsetters.put(groupKey, timed(() -> {
+                var subsetBytes = cache.computeIfAbsent("merged", programs, usedGlyphs, () -> merger.merge(usedGlyphs, cidFont));
+                System.out.println("From " + size + " to " + subsetBytes.length);
+                return subsetBytes;
+            }, groupKey, subsetNanos));
+            estimatedSavings.put(groupKey, savings);
         }
+        return mergedKeys;
+    }
 
-        doc.setAllSecurityToBeRemoved(true);
-        doc.save(output);
-        doc.close();
+    /**
+     * @return whether the font maps its codes to glyph ids of an embedded TrueType program
+     */
+    private static boolean isTrueTypeProgram(PDFont font) {
+        var descriptor = font.getFontDescriptor();
+        if (descriptor == null || descriptor.getFontFile2() == null) {
+            return false;
+        }
+        return font instanceof PDTrueTypeFont
+                || font instanceof PDType0Font && ((PDType0Font) font).getDescendantFont() instanceof PDCIDFontType2;
+    }
 
-        System.out.println("Optimized file " + input.getName()  + " from " + input.length() + " to " + output.length());
+    /**
+     * CID fonts whose program was replaced by a subset keeping the glyph ids only need widths and ToUnicode
+     * entries for their used codes.
+     */
+    private static void trimFontDictionary(PDFont font, PDDocument doc, GlyphSet usedCodes) throws IOException {
+        if (font instanceof PDType0Font && isTrueTypeProgram(font)) {
+            PDCIDFontType2EmbedderHelper.trimCIDFontDictionary(doc, (PDType0Font) font, usedCodes);
+        }
     }
 
-    public static String getFontContentDigest(PDFont font) throws IOException {
-        try {
-            return new BigInteger(DigestAlgorithms.digest(new ByteArrayInputStream(getFontBytes(font)), DigestAlgorithms.SHA1, BouncyCastleProvider.PROVIDER_NAME)).toString(16);
-        } catch (GeneralSecurityException e) {
-            throw new IOException(e);
+    /**
+     * @return what determines the glyphs selected by character codes, besides the font program
+     */
+    private static List<Object> getCodeMapping(PDFont font) {
+        var dictionary = font.getCOSObject();
+        if (font instanceof PDType0Font) {
+            var descendant = ((PDType0Font) font).getDescendantFont().getCOSObject();
+            return Arrays.asList(getFontType(font), dictionary.getDictionaryObject(COSName.ENCODING),
+                    descendant.getDictionaryObject(COSName.CID_TO_GID_MAP));
+        }
+        return Arrays.asList(getFontType(font), dictionary.getDictionaryObject(COSName.ENCODING));
+    }
+
+    private static void addUsedGlyphs(PDFont font, GlyphSet usedCodes, GlyphSet usedGlyphs) throws IOException {
+        for (int code : usedCodes.toArray()) {
+            if (font instanceof PDTrueTypeFont) {
+                usedGlyphs.add(((PDTrueTypeFont) font).codeToGID(code));
+            } else {
+                usedGlyphs.add(((PDType0Font) font).getDescendantFont().codeToGID(code));
+            }
+        }
+    }
+
+    /**
+     * Visits the fonts of all pages in page order, wherever they live, see {@link FontResourceWalker}.
+     */
+    static void forEachPageFont(PDDocument doc, FontResourceWalker.FontVisitor visitor) throws IOException {
+        FontResourceWalker.walk(doc, visitor);
+    }
+
+    /**
+     * Visits the fonts of the form's default resources, with page -1.
+     */
+    static void forEachFormFont(PDAcroForm acroForm, FontResourceWalker.FontVisitor visitor) throws IOException {
+        FontResourceWalker.walkFormFonts(acroForm, visitor);
+    }
+
+    /**
+     * @return start of the next phase
+     */
+    private static long phaseFinished(OptimizationListener listener, File input, OptimizationListener.Phase phase, long start) {
+        long now = System.nanoTime();
+        listener.phaseFinished(input, phase, now - start);
+        return now;
+    }
+
+    /**
+     * @return the exception or its cause, such as the cause of a failed subset task, if the subsetter did not
+     * support the program
+     */
+    private static UnsupportedFontProgramException getUnsupportedProgram(Throwable e) {
+        for (var cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof UnsupportedFontProgramException) {
+                return (UnsupportedFontProgramException) cause;
+            }
+        }
+        return null;
+    }
+
+    private static FontSubsetCache.Subsetter timed(FontSubsetCache.Subsetter subsetter, String key, Map<String, Long> nanos) {
+        if (subsetter == null) {
+            return null;
         }
+        return () -> {
+            long start = System.nanoTime();
+            try {
+                return subsetter.subset();
+            } finally {
+                nanos.put(key, System.nanoTime() - start);
+            }
+        };
     }
 
-    private static int getFontStreamSize(PDFont font) throws IOException {
+    /**
+     * @return font subtype, or the subtype of its program for FontFile3, e.g. {@code Type1C}
+     */
+    public static String getFontType(PDFont font) {
         var descriptor = font.getFontDescriptor();
-        var fontFile = descriptor.getFontFile();
-        if (fontFile != null) {
-            return fontFile.toByteArray().length;
+        var fontFile3 = descriptor != null ? descriptor.getFontFile3() : null;
+        if (fontFile3 != null && fontFile3.getCOSObject().getNameAsString(COSName.SUBTYPE) != null) {
+            return fontFile3.getCOSObject().getNameAsString(COSName.SUBTYPE);
         }
-        var fontFile2 = descriptor.getFontFile2();
-        if (fontFile2 != null) {
-            return fontFile2.toByteArray().length;
+        if (font instanceof PDType0Font) {
+            return ((PDType0Font) font).getDescendantFont().getCOSObject().getNameAsString(COSName.SUBTYPE);
         }
-        var fontFile3 = descriptor.getFontFile3();
-        if (fontFile3 != null) {
-            return fontFile3.toByteArray().length;
+        return font.getSubType();
+    }
+
+    public static PDDocument openDocument(File input, PdfFontPatcherOptions options) throws IOException {
+        return openDocument(input, options, options.getMemoryUsageSetting());
+    }
+
+    static PDDocument openDocument(File input, PdfFontPatcherOptions options, MemoryUsageSetting memoryUsageSetting) throws IOException {
+        var streamCache = memoryUsageSetting != null ? memoryUsageSetting.streamCache : IOUtils.createMemoryOnlyStreamCache();
+        if (options.getInputMode() == PdfFontPatcherOptions.InputMode.MEMORY_MAPPED) {
+            return Loader.loadPDF(new RandomAccessReadMemoryMappedFile(input), "", null, null, streamCache);
         }
-        return 0;
+        return Loader.loadPDF(input, "", null, null, streamCache);
     }
 
-    private static PDStream optimizeFont(PDFont font, PDDocument doc, Set<Integer> usedCodes) throws IOException {
+    public static PDDocument openDocument(byte[] input, PdfFontPatcherOptions options) throws IOException {
+        return openDocument(input, options.getMemoryUsageSetting());
+    }
+
+    private static PDDocument openDocument(byte[] input, MemoryUsageSetting memoryUsageSetting) throws IOException {
+        var streamCache = memoryUsageSetting != null ? memoryUsageSetting.streamCache : IOUtils.createMemoryOnlyStreamCache();
+        return Loader.loadPDF(input, "", null, null, streamCache);
+    }
+
+    /**
+     * Removes the default appearances of the form's widgets and the fonts of its default resources, unless
+     * form fonts are kept. Done before scanning, as appearances generated while scanning depend on them.
+     */
+    static void prepareFormFonts(PDDocument doc, PdfFontPatcherOptions options) {
+        var acroForm = doc.getDocumentCatalog().getAcroForm();
+        if (acroForm == null || options.isKeepFormFonts()) {
+            return;
+        }
+
+        // Remove forms fields' default appearance
+        for (Iterator<PDField> it = acroForm.getFieldIterator(); it.hasNext(); ) {
+            PDField field = it.next();
+            for (var widget : field.getWidgets()) {
+                widget.getCOSObject().removeItem(COSName.DA);
+            }
+        }
+
+        // Remove form fonts
+        var formResources = acroForm.getDefaultResources();
+        COSDictionary formFonts = formResources.getCOSObject().getCOSDictionary(COSName.FONT);
+        for (var fontName : formResources.getFontNames()) {
+            formFonts.removeItem(fontName);
+        }
+    }
+
+    /**
+     * Streams of the copies scanned in parallel are kept in temp files if the heap for streams is bounded, so
+     * the bound is not multiplied by the copies.
+     *
+     * @return setting for the copies, or null if the copies cannot keep to the bound and pages are scanned serially
+     */
+    private static MemoryUsageSetting getScanCopyMemoryUsageSetting(PdfFontPatcherOptions options) {
+        var memoryUsageSetting = options.getMemoryUsageSetting();
+        if (memoryUsageSetting == null || !memoryUsageSetting.isMainMemoryRestricted()) {
+            return memoryUsageSetting != null ? memoryUsageSetting : MemoryUsageSetting.setupMainMemoryOnly();
+        }
+        if (!memoryUsageSetting.useTempFile()) {
+            return null;
+        }
+        return MemoryUsageSetting.setupTempFileOnly().setTempDir(memoryUsageSetting.getTempDir());
+    }
+
+    static void saveDocument(PDDocument doc, File output, PdfFontPatcherOptions options) throws IOException {
+        try (var channel = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             var os = new BufferedOutputStream(Channels.newOutputStream(channel), options.getOutputBufferSize())) {
+            doc.save(os, options.getCompressParameters());
+        }
+    }
+
+    /**
+     * @param loader opens the copies scanned in parallel, which are prepared like the document by
+     *               {@link #prepareFormFonts(PDDocument, PdfFontPatcherOptions)}
+     */
+    static Map<String, GlyphSet> collectUsedCodes(DocumentLoader loader, PDDocument doc, FontFileRegistry fontFiles,
+                                                  PdfFontPatcherOptions options) throws IOException {
+        GlyphUsage glyphUsage;
+        var copyMemoryUsageSetting = getScanCopyMemoryUsageSetting(options);
+        if (options.getParallelism() > 1 && doc.getNumberOfPages() > 1 && copyMemoryUsageSetting != null) {
+            GlyphUsageScanner.DocumentOpener opener = () -> {
+                var copy = loader.load(copyMemoryUsageSetting);
+                prepareFormFonts(copy, options);
+                return copy;
+            };
+            glyphUsage = GlyphUsageScanner.scanParallel(opener, fontFiles, doc.getNumberOfPages(),
+                    options.getParallelism(), options.isRenderGlyphUsage());
+        } else {
+            glyphUsage = GlyphUsageScanner.scan(doc, fontFiles, options.isRenderGlyphUsage());
+        }
+        var acroForm = doc.getDocumentCatalog().getAcroForm();
+        if (acroForm != null && options.isKeepFormFonts()) {
+            new FormFieldGlyphCollector(glyphUsage, options.getFormFontCharacters()).collect(acroForm);
+        }
+        return glyphUsage.getUsedCodes();
+    }
+
+    /**
+     * Collects used codes like {@link #collectUsedCodes(DocumentLoader, PDDocument, FontFileRegistry, PdfFontPatcherOptions)},
+     * scanning only pages unknown to the previous manifest, and records the result in the new one.
+     * Fonts whose used codes are covered by their previous subset keep the codes of that subset.
+     *
+     * @param previous manifest of the previous run, or null
+     */
+    static Map<String, GlyphSet> collectUsedCodes(PDDocument doc, FontFileRegistry fontFiles, PdfFontPatcherOptions options,
+                                                  GlyphUsageManifest previous, GlyphUsageManifest manifest) throws IOException {
+        var fingerprints = PageFingerprinter.fingerprint(doc, options.getDigestAlgorithm());
+        var glyphUsage = new GlyphUsage(fontFiles);
+        int scanned = 0;
+        for (int i = 0; i < fingerprints.length; i++) {
+            var pageCodes = previous != null ? previous.getPageCodes(fingerprints[i]) : null;
+            if (pageCodes == null) {
+                pageCodes = GlyphUsageScanner.scanPage(doc, fontFiles, options.isRenderGlyphUsage(), i).getUsedCodes();
+                scanned++;
+            }
+            manifest.putPageCodes(fingerprints[i], pageCodes);
+            glyphUsage.addAll(pageCodes);
+        }
+        System.out.println("Scanned " + scanned + " of " + fingerprints.length + " pages");
+
+        var acroForm = doc.getDocumentCatalog().getAcroForm();
+        if (acroForm != null && options.isKeepFormFonts()) {
+            new FormFieldGlyphCollector(glyphUsage, options.getFormFontCharacters()).collect(acroForm);
+        }
+        var usedCodes = glyphUsage.getUsedCodes();
+        for (var entry : usedCodes.entrySet()) {
+            var subsetCodes = previous != null ? previous.getSubsetCodes(entry.getKey()) : null;
+            if (subsetCodes != null && subsetCodes.containsAll(entry.getValue())) {
+                // Same subset as before, found in the subset cache
+                entry.setValue(subsetCodes);
+            }
+            manifest.putSubsetCodes(entry.getKey(), entry.getValue());
+        }
+        return usedCodes;
+    }
+
+    /**
+     * @return the manifest, or null if missing or unreadable, then all pages are scanned
+     */
+    private static GlyphUsageManifest readManifest(Path file, PdfFontPatcherOptions options) {
+        try {
+            return GlyphUsageManifest.read(file, options.getDigestAlgorithm());
+        } catch (IOException e) {
+            System.out.println("Ignoring manifest " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Starts the subsetters, which only work on bytes, on up to {@code parallelism} threads.
+     * Without parallelism the tasks are left to run on demand, one font at a time, unless there is a deadline:
+     * then they run right away in the given order. Tasks starting after the deadline return null.
+     *
+     * @param inPlaceKeys subsetters changing the document, which only run on the calling thread
+     */
+    private static Map<String, FutureTask<byte[]>> computeSubsets(Map<String, FontSubsetCache.Subsetter> subsetters, Set<String> inPlaceKeys,
+                                                                  int parallelism, long deadline) {
+        Map<String, FutureTask<byte[]>> subsets = new LinkedHashMap<>();
+        int pooled = parallelism > 1 ? subsetters.size() - inPlaceKeys.size() : 0;
+        ExecutorService executor = pooled > 0 ? Executors.newFixedThreadPool(Math.min(parallelism, pooled)) : null;
+        try {
+            for (var entry : subsetters.entrySet()) {
+                var subsetter = entry.getValue();
+                FutureTask<byte[]> task = new FutureTask<>(() -> System.nanoTime() < deadline ? subsetter.subset() : null);
+                if (executor != null && !inPlaceKeys.contains(entry.getKey())) {
+                    executor.execute(task);
+                }
+                subsets.put(entry.getKey(), task);
+            }
+            if (deadline != Long.MAX_VALUE) {
+                for (var entry : subsets.entrySet()) {
+                    if (executor == null || inPlaceKeys.contains(entry.getKey())) {
+                        entry.getValue().run();
+                    }
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+        return subsets;
+    }
+
+    /**
+     * @return the subset, or null if it was not done before the deadline
+     */
+    private static byte[] awaitSubset(FutureTask<byte[]> task, long deadline) throws ExecutionException, InterruptedException {
+        if (deadline != Long.MAX_VALUE && !task.isDone()) {
+            try {
+                return task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // A running subsetter finishes in the background, its result is dropped
+                task.cancel(false);
+                return null;
+            }
+        }
+        task.run();
+        return task.get();
+    }
+
+    public static String getFontContentDigest(PDFont font) throws IOException {
+        var fontFile = FontFileRegistry.getFontFile(font);
+        if (fontFile == null) {
+            return FontDigest.of(FontDigest.Algorithm.SHA1, new byte[0]).getKey();
+        }
+        try (var is = fontFile.createInputStream()) {
+            return FontDigest.of(FontDigest.Algorithm.SHA1, is).getKey();
+        }
+    }
+
+    /**
+     * Prepares subsetting of fonts whose program can be replaced as a whole. The returned subsetter only works
+     * on bytes and may run on any thread. Returns null for other fonts, see {@link #canOptimizeInPlace(PDFont)}.
+     */
+    static FontSubsetCache.Subsetter prepareSubset(PDFont font, GlyphSet usedCodes, FontFileRegistry fontFiles, PdfFontPatcherOptions options) throws IOException {
+        var cache = options.getSubsetCache();
         if (font instanceof PDTrueTypeFont) {
-            System.out.println("Processing TrueType font " + font.getName() + " with used glyph count = " + usedCodes.size() + " and fontFile size = " + getFontStreamSize(font));
-            return optimizeTrueTypeFont((PDTrueTypeFont) font, doc, usedCodes);
+            System.out.println("Processing TrueType font " + font.getName() + " with used glyph count = " + usedCodes.size() + " and fontFile size = " + fontFiles.getSize(font));
+            if (options.isLegacyTrueTypeSubsetter()) {
+                return PDCIDFontType2EmbedderHelper.prepareTrueTypeSubset((PDTrueTypeFont) font, usedCodes, fontFiles.getBytes(font), cache);
+            }
+            return prepareGlyfSubset(font, usedCodes, fontFiles.getBytes(font), cache);
+        }
+
+        if (isTrueTypeProgram(font) && !options.isLegacyTrueTypeSubsetter()) {
+            System.out.println("Processing CIDTrueType font " + font.getName() + " with used glyph count = " + usedCodes.size() + " and fontFile size = " + fontFiles.getSize(font));
+            return prepareGlyfSubset(font, usedCodes, fontFiles.getBytes(font), cache);
         }
 
         if (font instanceof PDType1CFont) {
-            System.out.println("Processing Type1C font " + font.getName() + " with used glyph count = " + usedCodes.size() + " and fontFile size = " + getFontStreamSize(font));
-            return optimizeType1CFont((PDType1CFont) font, doc, usedCodes);
+            System.out.println("Processing Type1C font " + font.getName() + " with used glyph count = " + usedCodes.size() + " and fontFile size = " + fontFiles.getSize(font));
+            return prepareType1CSubset((PDType1CFont) font, usedCodes, fontFiles.getBytes(font), cache);
         }
 
-        if (!(font instanceof PDType0Font)) {
-            throw new IllegalStateException("Unexpected font " + font.getName() + " " + font.getClass());
+        if (font instanceof PDType0Font) {
+            // Type FontFile3
+            // Subtype CIDFontType0C
+            var fontFile3 = font.getFontDescriptor().getFontFile3();
+            if (fontFile3 != null && "CIDFontType0C".equals(fontFile3.getCOSObject().getNameAsString(COSName.SUBTYPE))) {
+                System.out.println("Processing CIDFontType0C font " + font.getName() + " with used glyph count = " + usedCodes.size() + " and fontFile size = " + fontFiles.getSize(font));
+                return prepareGenericCffSubset(usedCodes, fontFiles.getBytes(font), cache);
+            }
         }
 
-        var descriptor = font.getFontDescriptor();
-        var fontFile3 = descriptor.getFontFile3();
+        return null;
+    }
 
-        // Type FontFile3
-        // Subtype CIDFontType0C or Type1C
-        if (fontFile3 != null && "CIDFontType0C".equals(fontFile3.getCOSObject().getNameAsString(COSName.SUBTYPE))) {
-            System.out.println("Processing CIDFontType0C font " + font.getName() + " with used glyph count = " + usedCodes.size() + " and fontFile size = " + getFontStreamSize(font));
-            return optimizeCIDFontType0C(font, doc, usedCodes);
+    /**
+     * @return whether {@link #optimizeFont} can subset the font by rewriting its dictionary
+     */
+    private static boolean canOptimizeInPlace(PDFont font) {
+        return font instanceof PDType0Font && font.getFontDescriptor() != null && font.getFontDescriptor().getFontFile2() != null;
+    }
+
+    private static PDStream optimizeFont(PDFont font, PDDocument doc, GlyphSet usedCodes, FontFileRegistry fontFiles) throws IOException {
+        if (!(font instanceof PDType0Font)) {
+            throw new IllegalStateException("Unexpected font " + font.getName() + " " + font.getClass());
         }
 
-        //
-        var fontFile2 = descriptor.getFontFile2();
+        var fontFile2 = font.getFontDescriptor().getFontFile2();
         if (fontFile2 != null) {
-            System.out.println("Processing CIDTrueType font " + font.getName() + " with used glyph count = " + usedCodes.size() + " and fontFile size = " + getFontStreamSize(font));
-            optimizeCIDTrueType(font, doc, usedCodes);
+            System.out.println("Processing CIDTrueType font " + font.getName() + " with used glyph count = " + usedCodes.size() + " and fontFile size = " + fontFiles.getSize(font));
+            optimizeCIDTrueType(font, doc, usedCodes, fontFiles);
             return null;
         }
 
@@ -190,49 +814,83 @@ public class PdfFontPatcher {
         return null;
     }
 
-    private static PDStream optimizeType1CFont(PDType1CFont font, PDDocument doc, Set<Integer> usedCodes) throws IOException {
-        return null;
+    /**
+     * Maps used codes to glyph ids now; the returned subsetter only works on the font bytes. Works for simple
+     * TrueType fonts and CIDFontType2 fonts, which keep their encoding and CIDToGIDMap.
+     */
+    static FontSubsetCache.Subsetter prepareGlyfSubset(PDFont font, GlyphSet usedCodes, byte[] bytes, FontSubsetCache cache) throws IOException {
+        var usedGlyphs = GlyphSet.dense();
+        addUsedGlyphs(font, usedCodes, usedGlyphs);
+        boolean cidFont = font instanceof PDType0Font;
+        return () -> {
+            var subsetBytes = cache.computeIfAbsent(cidFont ? "glyf-cid" : "glyf", bytes, usedGlyphs,
+                    () -> new TrueTypeGlyphSubset(ByteBuffer.wrap(bytes), usedGlyphs, cidFont).process());
+            System.out.println("From " + bytes.length + " to " + subsetBytes.length);
+            return subsetBytes;
+        };
     }
 
-    private static PDStream optimizeTrueTypeFont(PDTrueTypeFont font, PDDocument doc, Set<Integer> usedCodes) throws IOException {
-        return PDCIDFontType2EmbedderHelper.embedTrueTypeFont(font, doc, usedCodes);
+    /**
+     * Maps used codes to glyph ids through the font encoding. The CFF keeps its glyph names and ids, so the
+     * encoding and widths of the PDF font stay valid.
+     */
+    static FontSubsetCache.Subsetter prepareType1CSubset(PDType1CFont font, GlyphSet usedCodes, byte[] bytes, FontSubsetCache cache) {
+        var cffFont = font.getCFFType1Font();
+        var usedGlyphs = GlyphSet.dense();
+        usedGlyphs.add(0);
+        usedCodes.forEach(code -> {
+            var name = font.codeToName(code);
+            usedGlyphs.add(cffFont.nameToGID(name));
+            // PDType1CFont draws these with their base glyphs
+            if ("sfthyphen".equals(name)) {
+                usedGlyphs.add(cffFont.nameToGID("hyphen"));
+            } else if ("nbspace".equals(name)) {
+                usedGlyphs.add(cffFont.nameToGID("space"));
+            }
+        });
+
+        // Accented glyphs may refer to their parts by StandardEncoding code
+        var standardCodeToGid = new int[256];
+        for (int code = 0; code < standardCodeToGid.length; code++) {
+            standardCodeToGid[code] = cffFont.nameToGID(StandardEncoding.INSTANCE.getName(code));
+        }
+
+        return () -> {
+            var subsetBytes = cache.computeIfAbsent("type1c", bytes, usedGlyphs, () -> new Type1CFontSubset(bytes, usedGlyphs, standardCodeToGid).process());
+            System.out.println("From " + bytes.length + " to " + subsetBytes.length);
+            return subsetBytes;
+        };
     }
 
-    private static void optimizeCIDTrueType(PDFont font, PDDocument doc, Set<Integer> usedCodes) throws IOException {
-        var bytes = getFontBytes(font);
+    static void optimizeCIDTrueType(PDFont font, PDDocument doc, GlyphSet usedCodes, FontFileRegistry fontFiles) throws IOException {
+        var bytes = fontFiles.getBytes(font);
 
         var otfParser = new OTFParser(true);
         OpenTypeFont otfFont = otfParser.parse(new RandomAccessReadBuffer(bytes));
         PDCIDFontType2EmbedderHelper.embedPDCIDFontType2(doc, font, otfFont, font.isVertical(), usedCodes);
 
-        System.out.println("From " + bytes.length + " to " + getFontBytes(font).length);
+        System.out.println("From " + bytes.length + " to " + fontFiles.getSize(FontFileRegistry.getCurrentFontFile(font)));
     }
 
-    private static PDStream optimizeCIDFontType0C(PDFont font, PDDocument doc, Set<Integer> usedCodes) throws IOException {
-        return optimizeGenericCffFont(font, doc, usedCodes);
-    }
-
-    private static PDStream optimizeGenericCffFont(PDFont font, PDDocument doc, Set<Integer> usedCodes) throws IOException {
-        var bytes = getFontBytes(font);
-
-        // Temp subset just to get the number of glyphs
-        var tmpSubset = new CFFFontSubset(bytes, Set.of(0), true);
-        var allGlyphs = new HashSet<Integer>();
-        // TODO: is this okay?
-        System.err.println(tmpSubset.fonts[0].nglyphs);
-        for (int i = 0; i < tmpSubset.fonts[0].nglyphs - 1; i++) {
-            if (usedCodes.contains(tmpSubset.fonts[0].gidToCid[i])) {
-                allGlyphs.add(i);
+    static FontSubsetCache.Subsetter prepareGenericCffSubset(GlyphSet usedCodes, byte[] bytes, FontSubsetCache cache) {
+        return () -> {
+            // Temp subset just to get the number of glyphs
+            var tmpSubset = new CFFFontSubset(bytes, Set.of(0), true);
+            var allGlyphs = GlyphSet.dense();
+            // TODO: is this okay?
+            System.err.println(tmpSubset.fonts[0].nglyphs);
+            for (int i = 0; i < tmpSubset.fonts[0].nglyphs - 1; i++) {
+                if (usedCodes.contains(tmpSubset.fonts[0].gidToCid[i])) {
+                    allGlyphs.add(i);
+                }
             }
-        }
-
-        // Rebuild the font
-        var subsetBytes = new CFFFontSubset(bytes, allGlyphs).Process();
 
-        System.out.println("From " + bytes.length + " to " + subsetBytes.length);
+            // Rebuild the font
+            var subsetBytes = cache.computeIfAbsent("cff", bytes, allGlyphs, () -> new CFFFontSubset(bytes, allGlyphs.toSet()).Process());
 
-        // Put the stream back
-        return setFontBytes(font, doc, subsetBytes);
+            System.out.println("From " + bytes.length + " to " + subsetBytes.length);
+            return subsetBytes;
+        };
     }
 
     public static PDStream getFontStream(PDFont font) throws IOException {
@@ -288,4 +946,44 @@ public class PdfFontPatcher {
             descriptor.setFontFile3(stream);
         }
     }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static final class PageFont {
+        private final int page;
+        private final COSDictionary pageFonts;
+        private final COSName name;
+        private final PDFont font;
+        private final String key;
+        private final int streamSize;
+        private final FontMetrics metrics;
+
+        private PageFont(int page, COSDictionary pageFonts, COSName name, PDFont font, String key, int streamSize, FontMetrics metrics) {
+            this.page = page;
+            this.pageFonts = pageFonts;
+            this.name = name;
+            this.font = font;
+            this.key = key;
+            this.streamSize = streamSize;
+            this.metrics = metrics;
+        }
+    }
 }
@@ -0,0 +1,265 @@
+package com.itextpdf.io.font;
+
+import com.github.alexsc.pdf.FontDigest;
+import com.github.alexsc.pdf.FontDigestCache;
+import com.github.alexsc.pdf.FontSubsetCache;
+import com.github.alexsc.pdf.OptimizationListener;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
+
+/**
+ * Settings for {@link PdfFontPatcher#optimizeFonts(java.io.File, java.io.File, PdfFontPatcherOptions)}.
+ */
+public class PdfFontPatcherOptions {
+    public enum InputMode {
+        /**
+         * Read the file through PDFBox's buffered file reader.
+         */
+        BUFFERED_FILE,
+        /**
+         * Memory-map the file, its content stays off-heap.
+         */
+        MEMORY_MAPPED
+    }
+
+    private static final String PRINTABLE_ASCII = " !\"#$%&'()*+,-./0123456789:;<=>?@ABCDEFGHIJKLMNOPQRSTUVWXYZ[\\]^_`abcdefghijklmnopqrstuvwxyz{|}~";
+
+    private boolean renderGlyphUsage = false;
+    private boolean legacyTrueTypeSubsetter = false;
+    private int parallelism = 1;
+    private FontSubsetCache subsetCache = FontSubsetCache.disabled();
+    private FontDigest.Algorithm digestAlgorithm = FontDigest.Algorithm.SHA1;
+    private FontDigestCache digestCache = FontDigestCache.disabled();
+    private InputMode inputMode = InputMode.BUFFERED_FILE;
+    private MemoryUsageSetting memoryUsageSetting;
+    private int outputBufferSize = 64 * 1024;
+    private OptimizationListener listener = OptimizationListener.NONE;
+    private FontSelectionPolicy selectionPolicy = new FontSelectionPolicy();
+    private CompressParameters compressParameters = CompressParameters.DEFAULT_COMPRESSION;
+    private boolean deduplicateStreams = true;
+    private boolean mergeFontSubsets = false;
+    private boolean keepFormFonts = false;
+    private String formFontCharacters = PRINTABLE_ASCII;
+    private boolean incremental = false;
+
+    /**
+     * Collect used glyphs by fully rendering every page with {@link com.github.alexsc.pdf.CustomPdfRenderer}
+     * instead of the raster-free {@link com.github.alexsc.pdf.GlyphUsageCollector}. Slower, kept for verification.
+     */
+    public PdfFontPatcherOptions setRenderGlyphUsage(boolean renderGlyphUsage) {
+        this.renderGlyphUsage = renderGlyphUsage;
+        return this;
+    }
+
+    public boolean isRenderGlyphUsage() {
+        return renderGlyphUsage;
+    }
+
+    /**
+     * Subset TrueType programs with iText's {@code TrueTypeFontSubset} and CIDFontType2 fonts by re-embedding them
+     * with PDFBox, instead of the table-level {@link com.github.alexsc.pdf.TrueTypeGlyphSubset}. Slower, kept for
+     * comparison.
+     */
+    public PdfFontPatcherOptions setLegacyTrueTypeSubsetter(boolean legacyTrueTypeSubsetter) {
+        this.legacyTrueTypeSubsetter = legacyTrueTypeSubsetter;
+        return this;
+    }
+
+    public boolean isLegacyTrueTypeSubsetter() {
+        return legacyTrueTypeSubsetter;
+    }
+
+    /**
+     * Number of threads scanning pages for used glyphs. Each thread loads its own copy of the input document.
+     */
+    public PdfFontPatcherOptions setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Cache of subset font programs, share one instance between documents to reuse subsets of common fonts.
+     */
+    public PdfFontPatcherOptions setSubsetCache(FontSubsetCache subsetCache) {
+        this.subsetCache = subsetCache;
+        return this;
+    }
+
+    public FontSubsetCache getSubsetCache() {
+        return subsetCache;
+    }
+
+    /**
+     * Digest identifying font programs within a document. {@link FontDigest.Algorithm#FAST64} collisions are
+     * resolved by comparing the programs. The {@link #setSubsetCache(FontSubsetCache) subset cache} keys its
+     * entries by SHA-256 whatever the algorithm.
+     */
+    public PdfFontPatcherOptions setDigestAlgorithm(FontDigest.Algorithm digestAlgorithm) {
+        this.digestAlgorithm = digestAlgorithm;
+        return this;
+    }
+
+    public FontDigest.Algorithm getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    /**
+     * Digests of font programs by their encoded data, share one instance between documents to skip decoding
+     * common fonts. Not used for encrypted documents.
+     */
+    public PdfFontPatcherOptions setDigestCache(FontDigestCache digestCache) {
+        this.digestCache = digestCache;
+        return this;
+    }
+
+    public FontDigestCache getDigestCache() {
+        return digestCache;
+    }
+
+    public PdfFontPatcherOptions setInputMode(InputMode inputMode) {
+        this.inputMode = inputMode;
+        return this;
+    }
+
+    public InputMode getInputMode() {
+        return inputMode;
+    }
+
+    /**
+     * Where PDFBox keeps new and decoded streams, e.g. {@link MemoryUsageSetting#setupMixed(long)} to spill to
+     * temp files above a heap limit. Null keeps the PDFBox default of main memory only.
+     */
+    public PdfFontPatcherOptions setMemoryUsageSetting(MemoryUsageSetting memoryUsageSetting) {
+        this.memoryUsageSetting = memoryUsageSetting;
+        return this;
+    }
+
+    public MemoryUsageSetting getMemoryUsageSetting() {
+        return memoryUsageSetting;
+    }
+
+    /**
+     * Buffer size of the file channel the output document is written to.
+     */
+    public PdfFontPatcherOptions setOutputBufferSize(int outputBufferSize) {
+        this.outputBufferSize = outputBufferSize;
+        return this;
+    }
+
+    public int getOutputBufferSize() {
+        return outputBufferSize;
+    }
+
+    /**
+     * Receives phase timings and per-font results, e.g. an {@link com.github.alexsc.pdf.OptimizationReport}.
+     */
+    public PdfFontPatcherOptions setListener(OptimizationListener listener) {
+        this.listener = listener != null ? listener : OptimizationListener.NONE;
+        return this;
+    }
+
+    public OptimizationListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Which used fonts are subset, and within which time.
+     */
+    public PdfFontPatcherOptions setSelectionPolicy(FontSelectionPolicy selectionPolicy) {
+        this.selectionPolicy = selectionPolicy;
+        return this;
+    }
+
+    public FontSelectionPolicy getSelectionPolicy() {
+        return selectionPolicy;
+    }
+
+    /**
+     * How the output is written, by default with object streams and a compressed xref stream.
+     * {@link CompressParameters#NO_COMPRESSION} writes a classic xref table readable by PDF 1.4 tools.
+     */
+    public PdfFontPatcherOptions setCompressParameters(CompressParameters compressParameters) {
+        this.compressParameters = compressParameters;
+        return this;
+    }
+
+    public CompressParameters getCompressParameters() {
+        return compressParameters;
+    }
+
+    /**
+     * Write byte-identical font programs and ToUnicode CMaps once, see {@link com.github.alexsc.pdf.FontStreamDeduplicator}.
+     */
+    public PdfFontPatcherOptions setDeduplicateStreams(boolean deduplicateStreams) {
+        this.deduplicateStreams = deduplicateStreams;
+        return this;
+    }
+
+    public boolean isDeduplicateStreams() {
+        return deduplicateStreams;
+    }
+
+    /**
+     * Replace different subsets of the same TrueType face, e.g. {@code ABCDEF+ArialMT} and {@code GHIJKL+ArialMT},
+     * by one subset covering the glyphs used with any of them, see {@link com.github.alexsc.pdf.TrueTypeSubsetMerger}.
+     */
+    public PdfFontPatcherOptions setMergeFontSubsets(boolean mergeFontSubsets) {
+        this.mergeFontSubsets = mergeFontSubsets;
+        return this;
+    }
+
+    public boolean isMergeFontSubsets() {
+        return mergeFontSubsets;
+    }
+
+    /**
+     * Keep the form's default resource fonts and the default appearances (DA) of fields, and subset those fonts
+     * to the glyphs of the field values, see {@link com.github.alexsc.pdf.FormFieldGlyphCollector}. By default
+     * DA entries and default resource fonts are removed, so viewers regenerate appearances with their own fonts.
+     */
+    public PdfFontPatcherOptions setKeepFormFonts(boolean keepFormFonts) {
+        this.keepFormFonts = keepFormFonts;
+        return this;
+    }
+
+    public boolean isKeepFormFonts() {
+        return keepFormFonts;
+    }
+
+    /**
+     * Characters kept in every default resource font with {@link #setKeepFormFonts(boolean)}, for values
+     * entered later. Printable ASCII by default.
+     */
+    public PdfFontPatcherOptions setFormFontCharacters(String formFontCharacters) {
+        this.formFontCharacters = formFontCharacters;
+        return this;
+    }
+
+    public String getFormFontCharacters() {
+        return formFontCharacters;
+    }
+
+    /**
+     * Keep a {@link com.github.alexsc.pdf.GlyphUsageManifest} beside the output file, named like it with a
+     * {@code .fonts} suffix, and use the one of the previous run: only pages whose content changed are scanned
+     * again, and fonts whose used glyphs did not grow are subset to the same glyphs as before. Configure a
+     * {@link #setSubsetCache(FontSubsetCache) subset cache} with a directory to reuse those subsets instead of
+     * computing them again. Changed pages are scanned one at a time, without {@link #setParallelism(int)}.
+     * Has no effect when optimizing into a stream.
+     */
+    public PdfFontPatcherOptions setIncremental(boolean incremental) {
+        this.incremental = incremental;
+        return this;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+}
@@ -1,22 +1,27 @@
 package org.apache.pdfbox.pdmodel.font;
 
+import com.github.alexsc.pdf.FontSubsetCache;
+import com.github.alexsc.pdf.GlyphSet;
 import com.itextpdf.io.font.*;
 import com.itextpdf.io.font.TrueTypeFont;
 import org.apache.fontbox.ttf.*;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.common.PDStream;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class PDCIDFontType2EmbedderHelper {
 
     public static void embedPDCIDFontType2(PDDocument document, PDFont font, OpenTypeFont ttf,
-                                           boolean vertical, Set<Integer> codePoints) throws IOException {
+                                           boolean vertical, GlyphSet codePoints) throws IOException {
 
         var postScriptTable = new PostScriptTableHelper();
         ttf.getTableMap().put(PostScriptTable.TAG, postScriptTable);
@@ -33,27 +38,85 @@ public class PDCIDFontType2EmbedderHelper {
 
         var dict = font.getCOSObject();
         var embedded = new PDCIDFontType2Embedder(document, dict, ttf, true, (PDType0Font) font, vertical);
-        for (Integer codePoint : codePoints) {
+        for (int codePoint : codePoints.toArray()) {
             embedded.addToSubset(codePoint);
         }
         embedded.subset();
     }
 
-    public static PDStream embedTrueTypeFont(PDTrueTypeFont font, PDDocument doc, Set<Integer> usedCodes) throws IOException {
-        var bytes = PdfFontPatcher.getFontBytes(font);
-        Files.write(Path.of("font-before.ttf"), bytes);
-
-        TrueTypeFont fpf = (TrueTypeFont) FontProgramFactory.createFont(bytes);
-        Set<Integer> usedGlyphs = new HashSet<>();
-        for (Integer usedCode : usedCodes) {
+    /**
+     * Maps used codes to glyph ids now; the returned subsetter only works on the font bytes.
+     */
+    public static FontSubsetCache.Subsetter prepareTrueTypeSubset(PDTrueTypeFont font, GlyphSet usedCodes,
+                                                                  byte[] bytes, FontSubsetCache cache) throws IOException {
+        var usedGlyphs = GlyphSet.dense();
+        for (int usedCode : usedCodes.toArray()) {
             usedGlyphs.add(font.codeToGID(usedCode));
         }
 
-        var newBytes2 = fpf.getSubset(usedGlyphs, false);
+        return () -> {
+            var newBytes2 = cache.computeIfAbsent("ttf", bytes, usedGlyphs, () -> {
+                TrueTypeFont fpf = (TrueTypeFont) FontProgramFactory.createFont(bytes);
+                return fpf.getSubset(usedGlyphs.toSet(), false);
+            });
+
+            System.out.println("From " + bytes.length + " to " + newBytes2.length);
+            return newBytes2;
+        };
+    }
+
+    /**
+     * Reduces the widths and the ToUnicode CMap of a CID font to the used codes, for a font whose program was
+     * replaced by a subset keeping the glyph ids. ToUnicode is only rewritten for fonts with an Identity CMap,
+     * whose codes are the 2-byte CIDs {@link ToUnicodeWriter} writes.
+     */
+    public static void trimCIDFontDictionary(PDDocument document, PDType0Font font, GlyphSet usedCodes) throws IOException {
+        var descendant = font.getDescendantFont();
+        var codes = usedCodes.toArray();
+        if (descendant.getCOSObject().containsKey(COSName.W)) {
+            Map<Integer, Float> widths = new TreeMap<>();
+            for (int code : codes) {
+                if (descendant.hasExplicitWidth(code)) {
+                    widths.put(descendant.codeToCID(code), descendant.getWidth(code));
+                }
+            }
+            descendant.getCOSObject().setItem(COSName.W, toWidthsArray(widths));
+        }
 
-        System.out.println("From " + bytes.length + " to " + newBytes2.length);
-        Files.write(Path.of("font-after.ttf"), newBytes2);
+        var cmap = font.getCMap();
+        if (font.getCOSObject().containsKey(COSName.TO_UNICODE) && cmap != null && cmap.getName() != null
+                && cmap.getName().startsWith("Identity-")) {
+            var writer = new ToUnicodeWriter();
+            for (int code : codes) {
+                var unicode = font.toUnicode(code);
+                if (unicode != null) {
+                    writer.add(code, unicode);
+                }
+            }
+            var out = new ByteArrayOutputStream();
+            writer.writeTo(out);
+            var stream = new PDStream(document, new ByteArrayInputStream(out.toByteArray()), COSName.FLATE_DECODE);
+            font.getCOSObject().setItem(COSName.TO_UNICODE, stream);
+        }
+    }
 
-        return PdfFontPatcher.setFontBytes(font, doc, newBytes2);
+    /**
+     * @return W array with one {@code cid [w1 w2 ...]} entry per run of consecutive CIDs
+     */
+    private static COSArray toWidthsArray(Map<Integer, Float> widths) {
+        var array = new COSArray();
+        COSArray run = null;
+        int next = -1;
+        for (var entry : widths.entrySet()) {
+            if (run == null || entry.getKey() != next) {
+                run = new COSArray();
+                array.add(COSInteger.get(entry.getKey()));
+                array.add(run);
+            }
+            float width = entry.getValue();
+            run.add(width == Math.round(width) ? COSInteger.get(Math.round(width)) : new COSFloat(width));
+            next = entry.getKey() + 1;
+        }
+        return array;
     }
 }
@@ -0,0 +1,80 @@
+package com.github.alexsc.pdf;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FontDigestTest {
+    @Test
+    void fast64IsXxHash64() {
+        // Published xxHash64 values for seed 0, covering the short path, the 4- and 8-byte tails and stripes
+        assertHash("ef46db3751d8e999", "");
+        assertHash("d24ec4f1a98c6e5b", "a");
+        assertHash("44bc2cf5ad770999", "abc");
+        assertHash("066ed728fceeb3be", "message digest");
+        assertHash("cfe1f278fa89835c", "abcdefghijklmnopqrstuvwxyz");
+        assertHash("fbcea83c8a378bf1", "Nobody inspects the spammish repetition");
+        assertHash("e04a477f19ee145d", "12345678901234567890123456789012345678901234567890123456789012345678901234567890");
+    }
+
+    @Test
+    void streamedDigestDoesNotDependOnChunking() throws IOException {
+        var random = new Random(1);
+        for (var algorithm : FontDigest.Algorithm.values()) {
+            for (int length = 0; length < 300; length += 7) {
+                var bytes = new byte[length];
+                random.nextBytes(bytes);
+                var expected = FontDigest.of(algorithm, bytes);
+                var streamed = FontDigest.of(algorithm, chunked(bytes));
+                assertEquals(expected.getKey(), streamed.getKey(), algorithm + " " + length);
+                assertEquals(length, streamed.getLength());
+            }
+        }
+    }
+
+    @Test
+    void failedReadDoesNotAffectNextDigest() throws IOException {
+        var bytes = "font program".getBytes(StandardCharsets.US_ASCII);
+        var expected = FontDigest.of(FontDigest.Algorithm.SHA256, bytes).getKey();
+        var failing = new InputStream() {
+            private int remaining = 100;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining-- <= 0) {
+                    throw new IOException("truncated");
+                }
+                return 'x';
+            }
+        };
+        assertThrows(IOException.class, () -> FontDigest.of(FontDigest.Algorithm.SHA256, failing));
+        assertEquals(expected, FontDigest.of(FontDigest.Algorithm.SHA256, new ByteArrayInputStream(bytes)).getKey());
+    }
+
+    private static void assertHash(String expected, String text) {
+        var bytes = text.getBytes(StandardCharsets.US_ASCII);
+        assertEquals(expected + String.format("%016x", bytes.length), FontDigest.of(FontDigest.Algorithm.FAST64, bytes).getKey());
+    }
+
+    /**
+     * Stream returning at most a varying handful of bytes per read.
+     */
+    private static InputStream chunked(byte[] bytes) {
+        return new FilterInputStream(new ByteArrayInputStream(bytes)) {
+            private int reads;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1 + reads++ % 13));
+            }
+        };
+    }
+}
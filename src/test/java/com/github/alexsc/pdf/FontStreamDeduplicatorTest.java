@@ -0,0 +1,45 @@
+package com.github.alexsc.pdf;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDTrueTypeFont;
+import org.apache.pdfbox.pdmodel.font.encoding.WinAnsiEncoding;
+import org.apache.pdfbox.pdmodel.interactive.form.PDAcroForm;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class FontStreamDeduplicatorTest {
+    @Test
+    void sharesProgramsOfPageAndFormFonts() throws IOException {
+        var program = TestFonts.liberationSans();
+        try (var doc = new PDDocument()) {
+            var pageFont = PDTrueTypeFont.load(doc, new ByteArrayInputStream(program), WinAnsiEncoding.INSTANCE);
+            var formFont = PDTrueTypeFont.load(doc, new ByteArrayInputStream(program), WinAnsiEncoding.INSTANCE);
+            var page = new PDPage();
+            page.setResources(new PDResources());
+            page.getResources().put(COSName.getPDFName("F1"), pageFont);
+            doc.addPage(page);
+            var acroForm = new PDAcroForm(doc);
+            acroForm.setDefaultResources(new PDResources());
+            acroForm.getDefaultResources().put(COSName.getPDFName("Helv"), formFont);
+            doc.getDocumentCatalog().setAcroForm(acroForm);
+            assertNotSame(fontFile(pageFont), fontFile(formFont));
+
+            assertEquals(1, FontStreamDeduplicator.deduplicate(doc));
+            assertSame(fontFile(pageFont), fontFile(formFont));
+        }
+    }
+
+    private static Object fontFile(PDFont font) {
+        return font.getCOSObject().getCOSDictionary(COSName.FONT_DESC).getCOSStream(COSName.FONT_FILE2);
+    }
+}
@@ -0,0 +1,109 @@
+package com.github.alexsc.pdf;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GlyphSetTest {
+    @Test
+    void matchesBoxedSetInAllRanges() {
+        var random = new Random(1);
+        // Byte codes, glyph ids, CIDs spread over 2 bytes and values beyond the bitset
+        for (int range : new int[]{256, 4096, 1 << 16, 1 << 20}) {
+            for (var set : List.of(GlyphSet.dense(), GlyphSet.sparse())) {
+                var expected = new TreeSet<Integer>();
+                for (int i = 0; i < 3000; i++) {
+                    int value = random.nextInt(range);
+                    assertEquals(expected.add(value), set.add(value), "add " + value);
+                }
+                assertValues(expected, set);
+                for (int i = 0; i < 1000; i++) {
+                    int value = random.nextInt(range);
+                    assertEquals(expected.contains(value), set.contains(value), "contains " + value);
+                }
+            }
+        }
+    }
+
+    @Test
+    void sparseSetSwitchesToBitsetWithoutLosingValues() {
+        var set = GlyphSet.sparse();
+        var expected = new TreeSet<Integer>();
+        for (int value : new int[]{70000, 1 << 20, 40000, 12}) {
+            set.add(value);
+            expected.add(value);
+        }
+        // Enough small values to make the bitset cheaper than the table
+        for (int value = 0; value < 2000; value += 3) {
+            set.add(value);
+            expected.add(value);
+        }
+        assertValues(expected, set);
+        assertFalse(set.add(70000));
+        assertFalse(set.add(12));
+    }
+
+    @Test
+    void addAllCombinesDenseAndSparseSets() {
+        var random = new Random(2);
+        for (boolean denseTarget : new boolean[]{true, false}) {
+            for (boolean denseSource : new boolean[]{true, false}) {
+                var target = denseTarget ? GlyphSet.dense() : GlyphSet.sparse();
+                var source = denseSource ? GlyphSet.dense() : GlyphSet.sparse();
+                var expected = new TreeSet<Integer>();
+                for (int i = 0; i < 200; i++) {
+                    int value = random.nextInt(i % 2 == 0 ? 300 : 1 << 18);
+                    (i % 3 == 0 ? target : source).add(value);
+                    expected.add(value);
+                }
+                target.addAll(source);
+                assertValues(expected, target);
+                assertTrue(target.containsAll(source));
+            }
+        }
+    }
+
+    @Test
+    void equalityDoesNotDependOnRepresentation() {
+        var dense = GlyphSet.dense();
+        var sparse = GlyphSet.sparse();
+        for (int value : new int[]{5, 65535, 65536, 300000, 0}) {
+            dense.add(value);
+            sparse.add(value);
+        }
+        assertEquals(dense, sparse);
+        assertEquals(dense.hashCode(), sparse.hashCode());
+        assertEquals(dense.toString(), sparse.toString());
+        assertEquals(dense, GlyphSet.of(dense.toSet()));
+
+        sparse.add(1);
+        assertFalse(dense.equals(sparse));
+        assertTrue(sparse.containsAll(dense));
+        assertFalse(dense.containsAll(sparse));
+    }
+
+    @Test
+    void rejectsNegativeValues() {
+        var set = GlyphSet.dense();
+        assertThrows(IllegalArgumentException.class, () -> set.add(-1));
+        assertFalse(set.contains(-1));
+        assertTrue(set.isEmpty());
+    }
+
+    private static void assertValues(TreeSet<Integer> expected, GlyphSet set) {
+        assertEquals(expected.size(), set.size());
+        assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), set.toArray());
+        assertEquals(expected, set.toSet());
+        var visited = new TreeSet<Integer>();
+        set.forEach(value -> assertTrue(visited.add(value), "visited twice " + value));
+        assertEquals(expected, visited);
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.alexsc.pdf;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SfntFontTest {
+    @Test
+    void writesTablesFontboxReadsBack() throws IOException {
+        var program = TestFonts.liberationSans();
+        var original = TestFonts.parseTrueType(program);
+        var font = SfntFont.parse(program);
+        assertEquals(original.getNumberOfGlyphs(), font.getNumGlyphs());
+
+        var written = TestFonts.parseTrueType(SfntFont.write(font.getSfntVersion(), font.getTables()));
+
+        assertEquals(original.getTableMap().keySet(), written.getTableMap().keySet());
+        var all = GlyphSet.dense();
+        for (int gid = 0; gid < font.getNumGlyphs(); gid++) {
+            all.add(gid);
+        }
+        TestFonts.assertSubset(original, written, all);
+    }
+
+    @Test
+    void setGlyphsReplacesOutlines() throws IOException {
+        var program = TestFonts.liberationSans();
+        var original = TestFonts.parseTrueType(program);
+        var font = SfntFont.parse(program);
+        int a = original.getUnicodeCmapLookup().getGlyphId('A');
+        int b = original.getUnicodeCmapLookup().getGlyphId('B');
+
+        var outlines = new ByteBuffer[font.getNumGlyphs()];
+        for (int gid = 0; gid < outlines.length; gid++) {
+            outlines[gid] = ByteBuffer.allocate(0);
+        }
+        outlines[a] = font.getGlyph(a);
+        outlines[b] = font.getGlyph(a);
+        var tables = new TreeMap<>(font.getTables());
+        SfntFont.setGlyphs(tables, outlines);
+        var bytes = SfntFont.write(font.getSfntVersion(), tables);
+        var written = TestFonts.parseTrueType(bytes);
+
+        assertEquals(original.getNumberOfGlyphs(), written.getNumberOfGlyphs());
+        assertEquals(TestFonts.outline(original, a), TestFonts.outline(written, a));
+        // fontbox shifts outlines by the side bearing in hmtx, which still is the one of B
+        assertEquals(font.getGlyph(a), SfntFont.parse(bytes).getGlyph(b));
+        assertEquals("", TestFonts.outline(written, original.getUnicodeCmapLookup().getGlyphId('C')));
+    }
+
+    @Test
+    void closeCompositesAddsNotdefAndComponents() throws IOException {
+        var program = TestFonts.liberationSans();
+        var original = TestFonts.parseTrueType(program);
+        var font = SfntFont.parse(program);
+        int aacute = original.getUnicodeCmapLookup().getGlyphId(0xC1);
+        var glyphs = GlyphSet.dense();
+        glyphs.add(aacute);
+
+        var kept = SfntFont.closeComposites(glyphs, font.getNumGlyphs(), font::getGlyph);
+
+        var expected = TestFonts.withComponents(original, glyphs);
+        expected.add(0);
+        assertTrue(expected.size() > 2);
+        assertEquals(expected, kept);
+    }
+
+    @Test
+    void rejectsTablesOutsideOfProgram() {
+        var program = new byte[28];
+        // One table record whose offset points past the end
+        ByteBuffer.wrap(program).putInt(0x00010000).putShort((short) 1).position(12).putInt(0x676C7966).putInt(0).putInt(1000).putInt(4);
+        assertThrows(IOException.class, () -> SfntFont.parse(program));
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.alexsc.pdf;
+
+import org.apache.fontbox.cff.CFFParser;
+import org.apache.fontbox.cff.CFFType1Font;
+import org.apache.fontbox.ttf.GlyfCompositeDescript;
+import org.apache.fontbox.ttf.OTFParser;
+import org.apache.fontbox.ttf.TTFParser;
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
+import org.junit.jupiter.api.Assertions;
+
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Real font programs for round-trip tests, read from the classpath, and helpers to compare their outlines.
+ */
+final class TestFonts {
+    private TestFonts() {
+    }
+
+    /**
+     * @return LiberationSans Regular, shipped with PDFBox, which has composite accented glyphs
+     */
+    static byte[] liberationSans() throws IOException {
+        return read("/org/apache/pdfbox/resources/ttf/LiberationSans-Regular.ttf");
+    }
+
+    /**
+     * @return the bare CFF font of FontAwesome, as embedded in FontFile3 streams of subtype Type1C
+     */
+    static byte[] fontAwesomeCff() throws IOException {
+        var otf = read("/META-INF/resources/webjars/font-awesome/4.7.0/fonts/FontAwesome.otf");
+        var cff = new OTFParser(true).parse(new RandomAccessReadBuffer(otf)).getTableMap().get("CFF ");
+        return Arrays.copyOfRange(otf, (int) cff.getOffset(), (int) (cff.getOffset() + cff.getLength()));
+    }
+
+    static CFFType1Font parseCff(byte[] cff) throws IOException {
+        return (CFFType1Font) new CFFParser().parse(new RandomAccessReadBuffer(cff)).get(0);
+    }
+
+    /**
+     * Parses the program the way PDFBox parses embedded fonts, which need not have cmap and post.
+     */
+    static TrueTypeFont parseTrueType(byte[] program) throws IOException {
+        return new TTFParser(true).parse(new RandomAccessReadBuffer(program));
+    }
+
+    /**
+     * @return segments and coordinates of the outline, equal for equal outlines
+     */
+    static String outline(Shape path) {
+        var text = new StringBuilder();
+        var coordinates = new double[6];
+        for (var iterator = path.getPathIterator(null); !iterator.isDone(); iterator.next()) {
+            int type = iterator.currentSegment(coordinates);
+            text.append(type).append(Arrays.toString(Arrays.copyOf(coordinates, coordinateCount(type)))).append(' ');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Asserts that kept glyphs have their original outlines and advances and all others have no outline.
+     */
+    static void assertSubset(TrueTypeFont original, TrueTypeFont subset, GlyphSet kept) throws IOException {
+        for (int gid = 0; gid < subset.getNumberOfGlyphs(); gid++) {
+            if (kept.contains(gid)) {
+                Assertions.assertEquals(outline(original, gid), outline(subset, gid), "outline of glyph " + gid);
+                Assertions.assertEquals(original.getAdvanceWidth(gid), subset.getAdvanceWidth(gid), "advance of glyph " + gid);
+            } else {
+                Assertions.assertEquals("", outline(subset, gid), "outline of unused glyph " + gid);
+            }
+        }
+    }
+
+    /**
+     * @return .notdef and the glyphs of the characters
+     */
+    static GlyphSet glyphsOf(TrueTypeFont font, String text) throws IOException {
+        var glyphs = GlyphSet.dense();
+        glyphs.add(0);
+        var cmap = font.getUnicodeCmapLookup();
+        text.codePoints().forEach(codePoint -> glyphs.add(cmap.getGlyphId(codePoint)));
+        return glyphs;
+    }
+
+    /**
+     * @return the glyphs with the components of composite glyphs, as read by fontbox
+     */
+    static GlyphSet withComponents(TrueTypeFont font, GlyphSet glyphs) throws IOException {
+        var kept = GlyphSet.dense();
+        kept.addAll(glyphs);
+        for (int gid : glyphs.toArray()) {
+            kept.addAll(componentsOf(font, gid));
+        }
+        return kept;
+    }
+
+    /**
+     * @return components of a composite glyph and theirs, empty for simple glyphs
+     */
+    static GlyphSet componentsOf(TrueTypeFont font, int gid) throws IOException {
+        var components = GlyphSet.dense();
+        var description = font.getGlyph().getGlyph(gid).getDescription();
+        if (description instanceof GlyfCompositeDescript) {
+            for (var component : ((GlyfCompositeDescript) description).getComponents()) {
+                components.add(component.getGlyphIndex());
+                components.addAll(componentsOf(font, component.getGlyphIndex()));
+            }
+        }
+        return components;
+    }
+
+    /**
+     * @return outline of the glyph as by {@link #outline(Shape)}, empty without outline
+     */
+    static String outline(TrueTypeFont font, int gid) throws IOException {
+        var glyph = font.getGlyph().getGlyph(gid);
+        return glyph != null ? outline(glyph.getPath()) : "";
+    }
+
+    private static int coordinateCount(int type) {
+        switch (type) {
+            case PathIterator.SEG_MOVETO:
+            case PathIterator.SEG_LINETO:
+                return 2;
+            case PathIterator.SEG_QUADTO:
+                return 4;
+            case PathIterator.SEG_CUBICTO:
+                return 6;
+            default:
+                return 0;
+        }
+    }
+
+    private static byte[] read(String resource) throws IOException {
+        try (var in = TestFonts.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("Missing test font " + resource);
+            }
+            return in.readAllBytes();
+        }
+    }
+}
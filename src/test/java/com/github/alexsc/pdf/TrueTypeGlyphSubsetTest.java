@@ -0,0 +1,61 @@
+package com.github.alexsc.pdf;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TrueTypeGlyphSubsetTest {
+    @Test
+    void simpleFontKeepsGlyphIdsAndUsedOutlines() throws IOException {
+        var program = TestFonts.liberationSans();
+        var original = TestFonts.parseTrueType(program);
+        var glyphs = TestFonts.glyphsOf(original, "Ab\u00c1");
+
+        var subset = TestFonts.parseTrueType(new TrueTypeGlyphSubset(ByteBuffer.wrap(program), glyphs, false).process());
+
+        assertEquals(original.getNumberOfGlyphs(), subset.getNumberOfGlyphs());
+        assertEquals(original.getUnicodeCmapLookup().getGlyphId('A'), subset.getUnicodeCmapLookup().getGlyphId('A'));
+        TestFonts.assertSubset(original, subset, TestFonts.withComponents(original, glyphs));
+    }
+
+    @Test
+    void cidFontCutsGlyphsAfterLastUsed() throws IOException {
+        var program = TestFonts.liberationSans();
+        var original = TestFonts.parseTrueType(program);
+        var glyphs = TestFonts.glyphsOf(original, "A\u00c1");
+
+        var bytes = new TrueTypeGlyphSubset(ByteBuffer.wrap(program), glyphs, true).process();
+        var subset = TestFonts.parseTrueType(bytes);
+
+        var kept = TestFonts.withComponents(original, glyphs);
+        var keptGlyphs = kept.toArray();
+        assertEquals(keptGlyphs[keptGlyphs.length - 1] + 1, subset.getNumberOfGlyphs());
+        assertFalse(subset.getTableMap().containsKey("cmap"));
+        TestFonts.assertSubset(original, subset, kept);
+        assertTrue(bytes.length < program.length / 10, "subset size " + bytes.length);
+    }
+
+    @Test
+    void compositeGlyphKeepsItsComponents() throws IOException {
+        var program = TestFonts.liberationSans();
+        var original = TestFonts.parseTrueType(program);
+        var glyphs = TestFonts.glyphsOf(original, "\u00c1");
+        int aacute = original.getUnicodeCmapLookup().getGlyphId(0xC1);
+
+        var subset = TestFonts.parseTrueType(new TrueTypeGlyphSubset(ByteBuffer.wrap(program), glyphs, false).process());
+
+        var components = TestFonts.componentsOf(original, aacute);
+        assertFalse(components.isEmpty());
+        for (int gid : components.toArray()) {
+            assertNotEquals("", TestFonts.outline(subset, gid), "component " + gid);
+            assertEquals(TestFonts.outline(original, gid), TestFonts.outline(subset, gid), "component " + gid);
+        }
+        assertEquals(TestFonts.outline(original, aacute), TestFonts.outline(subset, aacute));
+    }
+}
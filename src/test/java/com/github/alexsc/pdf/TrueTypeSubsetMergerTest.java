@@ -0,0 +1,100 @@
+package com.github.alexsc.pdf;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TrueTypeSubsetMergerTest {
+    @Test
+    void mergedProgramHasOutlinesOfAllSubsets() throws IOException {
+        var program = TestFonts.liberationSans();
+        var original = TestFonts.parseTrueType(program);
+        var font = SfntFont.parse(program);
+        var first = TestFonts.withComponents(original, TestFonts.glyphsOf(original, "Ab"));
+        var second = TestFonts.withComponents(original, TestFonts.glyphsOf(original, "\u00c1c"));
+
+        var merger = new TrueTypeSubsetMerger(List.of(keepOutlines(font, first), keepOutlines(font, second)));
+        assertNull(merger.getIncompatibility());
+        var union = TestFonts.glyphsOf(original, "Ab\u00c1c");
+        var merged = TestFonts.parseTrueType(merger.merge(union, false));
+
+        assertEquals(original.getNumberOfGlyphs(), merged.getNumberOfGlyphs());
+        TestFonts.assertSubset(original, merged, TestFonts.withComponents(original, union));
+    }
+
+    @Test
+    void mergeKeepsOnlyRequestedGlyphs() throws IOException {
+        var program = TestFonts.liberationSans();
+        var original = TestFonts.parseTrueType(program);
+        var font = SfntFont.parse(program);
+        var glyphs = TestFonts.glyphsOf(original, "Ab\u00c1c");
+        var subset = keepOutlines(font, TestFonts.withComponents(original, glyphs));
+
+        var requested = TestFonts.glyphsOf(original, "\u00c1");
+        var merged = TestFonts.parseTrueType(new TrueTypeSubsetMerger(List.of(subset, subset)).merge(requested, true));
+
+        TestFonts.assertSubset(original, merged, TestFonts.withComponents(original, requested));
+    }
+
+    @Test
+    void differentGlyphCountsAreIncompatible() throws IOException {
+        var program = TestFonts.liberationSans();
+        var original = TestFonts.parseTrueType(program);
+        // Cuts off glyphs after the last used one
+        var truncated = new TrueTypeGlyphSubset(ByteBuffer.wrap(program), TestFonts.glyphsOf(original, "A"), true).process();
+
+        var merger = new TrueTypeSubsetMerger(List.of(program, truncated));
+
+        assertNotNull(merger.getIncompatibility());
+        assertThrows(IllegalStateException.class, () -> merger.merge(GlyphSet.dense(), true));
+    }
+
+    @Test
+    void differentOutlinesOfGlyphFail() throws IOException {
+        var program = TestFonts.liberationSans();
+        var original = TestFonts.parseTrueType(program);
+        var font = SfntFont.parse(program);
+        int a = original.getUnicodeCmapLookup().getGlyphId('A');
+        int b = original.getUnicodeCmapLookup().getGlyphId('B');
+        var outlines = emptyOutlines(font);
+        outlines[a] = font.getGlyph(b);
+        var tables = new TreeMap<>(font.getTables());
+        SfntFont.setGlyphs(tables, outlines);
+        var altered = SfntFont.write(font.getSfntVersion(), tables);
+
+        var merger = new TrueTypeSubsetMerger(List.of(keepOutlines(font, TestFonts.glyphsOf(original, "A")), altered));
+
+        assertNull(merger.getIncompatibility());
+        assertThrows(IOException.class, () -> merger.merge(TestFonts.glyphsOf(original, "A"), false));
+    }
+
+    /**
+     * @return the program with the outlines of the glyphs only and all other tables unchanged, as subsets
+     * embedded by producers that keep glyph ids
+     */
+    private static byte[] keepOutlines(SfntFont font, GlyphSet glyphs) throws IOException {
+        var outlines = emptyOutlines(font);
+        for (int gid : glyphs.toArray()) {
+            outlines[gid] = font.getGlyph(gid);
+        }
+        var tables = new TreeMap<>(font.getTables());
+        SfntFont.setGlyphs(tables, outlines);
+        return SfntFont.write(font.getSfntVersion(), tables);
+    }
+
+    private static ByteBuffer[] emptyOutlines(SfntFont font) {
+        var outlines = new ByteBuffer[font.getNumGlyphs()];
+        for (int gid = 0; gid < outlines.length; gid++) {
+            outlines[gid] = ByteBuffer.allocate(0);
+        }
+        return outlines;
+    }
+}
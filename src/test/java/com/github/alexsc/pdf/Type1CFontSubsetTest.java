@@ -0,0 +1,226 @@
+package com.github.alexsc.pdf;
+
+import org.apache.fontbox.cff.CFFType1Font;
+import org.apache.fontbox.encoding.StandardEncoding;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Type1CFontSubsetTest {
+    private static final byte[] ENDCHAR = {14};
+    private static final byte[] RETURN = {11};
+
+    @Test
+    void keepsGlyphIdsAndUsedCharstrings() throws IOException {
+        var cff = TestFonts.fontAwesomeCff();
+        var original = TestFonts.parseCff(cff);
+        var glyphs = GlyphSet.dense();
+        for (int gid : new int[]{1, 2, 100, 400, original.getNumCharStrings() - 1}) {
+            glyphs.add(gid);
+        }
+
+        var bytes = new Type1CFontSubset(cff, glyphs, standardCodeToGid(original)).process();
+        var subset = TestFonts.parseCff(bytes);
+
+        assertEquals(original.getName(), subset.getName());
+        assertEquals(original.getNumCharStrings(), subset.getNumCharStrings());
+        assertEquals(original.getGlobalSubrIndex().size(), subset.getGlobalSubrIndex().size());
+        assertEquals(localSubrs(original).size(), localSubrs(subset).size());
+        assertTrue(bytes.length < cff.length / 4, "subset size " + bytes.length);
+        glyphs.add(0);
+        assertSubset(original, subset, glyphs);
+    }
+
+    @Test
+    void dropsSubroutinesOfUnusedGlyphsOnly() throws IOException {
+        var cff = seacFont();
+        var original = TestFonts.parseCff(cff);
+        var glyphs = GlyphSet.dense();
+        glyphs.add(original.nameToGID("B"));
+
+        var subset = TestFonts.parseCff(new Type1CFontSubset(cff, glyphs, standardCodeToGid(original)).process());
+
+        // A and C call the local subroutines, B the global one
+        assertArrayEquals(RETURN, localSubrs(subset).get(0));
+        assertArrayEquals(RETURN, localSubrs(subset).get(1));
+        assertArrayEquals(original.getGlobalSubrIndex().get(0), subset.getGlobalSubrIndex().get(0));
+        glyphs.add(0);
+        assertSubset(original, subset, glyphs);
+    }
+
+    @Test
+    void seacKeepsBaseAndAccent() throws IOException {
+        var cff = seacFont();
+        var original = TestFonts.parseCff(cff);
+        int aacute = original.nameToGID("Aacute");
+        var glyphs = GlyphSet.dense();
+        glyphs.add(aacute);
+
+        var subset = TestFonts.parseCff(new Type1CFontSubset(cff, glyphs, standardCodeToGid(original)).process());
+
+        var kept = GlyphSet.dense();
+        for (var name : List.of(".notdef", "A", "acute", "Aacute")) {
+            kept.add(original.nameToGID(name));
+        }
+        assertSubset(original, subset, kept);
+        // The accented outline is drawn from the base and accent glyphs
+        assertNotEquals("", outline(subset, aacute));
+        assertEquals(outline(original, aacute), outline(subset, aacute));
+        assertArrayEquals(localSubrs(original).get(0), localSubrs(subset).get(0));
+        assertArrayEquals(RETURN, localSubrs(subset).get(1));
+    }
+
+    @Test
+    void unpredictableSubroutineCallsAreUnsupported() throws IOException {
+        // C: add 1 1, which makes the operands of following calls unknown
+        var cff = seacFont(bytes(140, 140, 12, 10, 33, 10, 14));
+        var original = TestFonts.parseCff(cff);
+        var usingC = GlyphSet.dense();
+        usingC.add(original.nameToGID("C"));
+
+        assertThrows(UnsupportedFontProgramException.class,
+                () -> new Type1CFontSubset(cff, usingC, standardCodeToGid(original)).process());
+        // Unused glyphs do not matter
+        var usingA = GlyphSet.dense();
+        usingA.add(original.nameToGID("A"));
+        var subset = TestFonts.parseCff(new Type1CFontSubset(cff, usingA, standardCodeToGid(original)).process());
+        assertArrayEquals(ENDCHAR, subset.getCharStringBytes().get(original.nameToGID("C")));
+    }
+
+    /**
+     * Asserts that kept glyphs have their original charstrings, names and outlines and all others are endchar.
+     */
+    private static void assertSubset(CFFType1Font original, CFFType1Font subset, GlyphSet kept) throws IOException {
+        for (int gid = 0; gid < original.getNumCharStrings(); gid++) {
+            assertEquals(original.getCharset().getNameForGID(gid), subset.getCharset().getNameForGID(gid));
+            if (kept.contains(gid)) {
+                assertArrayEquals(original.getCharStringBytes().get(gid), subset.getCharStringBytes().get(gid), "charstring " + gid);
+                assertEquals(outline(original, gid), outline(subset, gid), "outline of glyph " + gid);
+            } else {
+                assertArrayEquals(ENDCHAR, subset.getCharStringBytes().get(gid), "charstring of unused glyph " + gid);
+            }
+        }
+    }
+
+    private static String outline(CFFType1Font font, int gid) throws IOException {
+        return TestFonts.outline(font.getType2CharString(gid).getPath());
+    }
+
+    private static List<byte[]> localSubrs(CFFType1Font font) {
+        var subrs = (byte[][]) font.getPrivateDict().get("Subrs");
+        return subrs != null ? Arrays.asList(subrs) : List.of();
+    }
+
+    /**
+     * Same as the patcher passes, so seac may refer to glyphs by StandardEncoding code.
+     */
+    private static int[] standardCodeToGid(CFFType1Font font) {
+        var standardCodeToGid = new int[256];
+        for (int code = 0; code < standardCodeToGid.length; code++) {
+            standardCodeToGid[code] = font.nameToGID(StandardEncoding.INSTANCE.getName(code));
+        }
+        return standardCodeToGid;
+    }
+
+    /**
+     * @return CFF font whose Aacute is a seac of A and acute, with glyphs calling local and global subroutines
+     */
+    private static byte[] seacFont() throws IOException {
+        // C: callsubr 1
+        return seacFont(bytes(33, 10, 14));
+    }
+
+    /**
+     * @param c charstring of C
+     */
+    private static byte[] seacFont(byte[] c) throws IOException {
+        var header = bytes(1, 0, 4, 1);
+        var names = index(List.of("Seac".getBytes(StandardCharsets.US_ASCII)));
+        var strings = index(List.of(ascii("A"), ascii("B"), ascii("Aacute"), ascii("acute"), ascii("C")));
+        // rlineto 0 -5
+        var globalSubrs = index(List.of(bytes(139, 134, 5, 11)));
+        var charStrings = index(List.of(
+                // .notdef
+                bytes(14),
+                // A: rmoveto 10 20, rlineto 30 0, callsubr 0
+                bytes(149, 159, 21, 169, 139, 5, 32, 10, 14),
+                // B: rmoveto 10 10, rlineto 5 5, callgsubr 0
+                bytes(149, 149, 21, 144, 144, 5, 32, 29, 14),
+                c,
+                // acute: rmoveto 0 50, rlineto 10 10
+                bytes(139, 189, 21, 149, 149, 5, 14),
+                // Aacute: seac 0 0 with A (65) and acute (194)
+                bytes(139, 139, 204, 247, 86, 14)));
+        // Format 0 with the string ids of A, B, C, acute and Aacute
+        var charset = bytes(0, 1, 135, 1, 136, 1, 139, 1, 138, 1, 137);
+        var localSubrs = index(List.of(bytes(139, 169, 5, 11), bytes(159, 159, 21, 149, 139, 5, 11)));
+        // defaultWidthX 0, Subrs right after the Private DICT
+        var privateDict = concat(bytes(139, 20), int32(0), bytes(19));
+        privateDict = concat(bytes(139, 20), int32(privateDict.length), bytes(19));
+
+        int topDictIndexSize = index(List.of(topDict(0, 0, 0, 0))).length;
+        int charsetOffset = header.length + names.length + topDictIndexSize + strings.length + globalSubrs.length;
+        int charStringsOffset = charsetOffset + charset.length;
+        int privateOffset = charStringsOffset + charStrings.length;
+        var topDict = index(List.of(topDict(charsetOffset, charStringsOffset, privateDict.length, privateOffset)));
+        return concat(header, names, topDict, strings, globalSubrs, charset, charStrings, privateDict, localSubrs);
+    }
+
+    private static byte[] topDict(int charset, int charStrings, int privateSize, int privateOffset) throws IOException {
+        return concat(int32(charset), bytes(15), int32(charStrings), bytes(17), int32(privateSize), int32(privateOffset), bytes(18));
+    }
+
+    /**
+     * @return INDEX with 1-byte offsets, enough for the small test font
+     */
+    private static byte[] index(List<byte[]> items) throws IOException {
+        var out = new ByteArrayOutputStream();
+        out.write(items.size() >> 8);
+        out.write(items.size());
+        out.write(1);
+        int offset = 1;
+        out.write(offset);
+        for (var item : items) {
+            offset += item.length;
+            out.write(offset);
+        }
+        for (var item : items) {
+            out.write(item);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] int32(int value) {
+        return bytes(29, value >>> 24, value >>> 16, value >>> 8, value);
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] bytes(int... values) {
+        var bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... parts) throws IOException {
+        var out = new ByteArrayOutputStream();
+        for (var part : parts) {
+            out.write(part);
+        }
+        return out.toByteArray();
+    }
+}
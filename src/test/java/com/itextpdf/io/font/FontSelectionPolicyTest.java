@@ -0,0 +1,27 @@
+package com.itextpdf.io.font;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FontSelectionPolicyTest {
+    @Test
+    void unusedProgramIsRemovedWhole() {
+        assertEquals(1000, FontSelectionPolicy.estimateSavings(1000, -1, 100));
+        assertEquals(1000, FontSelectionPolicy.estimateSavings(1000, -1, -1));
+    }
+
+    @Test
+    void selectedFontWithoutCodesKeepsNotdef() {
+        assertEquals(990, FontSelectionPolicy.estimateSavings(1000, 0, 100));
+        assertEquals(990, FontSelectionPolicy.estimateSavings(1000, 1, 100));
+        assertEquals(0, FontSelectionPolicy.estimateSavings(1000, 0, -1));
+    }
+
+    @Test
+    void usedFontShrinksWithUnusedGlyphs() {
+        assertEquals(750, FontSelectionPolicy.estimateSavings(1000, 25, 100));
+        assertEquals(0, FontSelectionPolicy.estimateSavings(1000, 150, 100));
+        assertEquals(0, FontSelectionPolicy.estimateSavings(1000, 25, -1));
+    }
+}